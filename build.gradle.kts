@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("org.jetbrains.intellij") version "1.17.2"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.intellij.plugin"
@@ -10,13 +11,44 @@ repositories {
     mavenCentral()
 }
 
+dependencies {
+    // Provided by the IDE at runtime; needed when the churn harness runs the inotify backend outside of it
+    "jmhRuntimeOnly"("net.java.dev.jna:jna:5.13.0")
+
+    testImplementation("junit:junit:4.13.2")
+}
+
 intellij {
     version.set("2023.2.5")
     type.set("IC") // IntelliJ IDEA Community Edition
     plugins.set(listOf())
 }
 
+// Benchmarks in src/jmh cover the classes that work without a running IDE.
+// Run with ./gradlew jmh (add --offline once dependencies are cached, -Pjmh.includes=<regex> to select);
+// results go to build/reports/jmh/results.json
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    (findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
+
 tasks {
+    // Stress check of the watcher pipeline under file churn, e.g.
+    // ./gradlew churn -Pchurn.args="--rate=500 --duration=60 --max-p99-ms=1000"
+    register<JavaExec>("churn") {
+        group = "verification"
+        description = "Drives file churn through the watcher pipeline and reports latency, reloads and lost changes"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("com.radut.plugin.bfw.benchmark.ChurnHarness")
+        args = (findProperty("churn.args") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: listOf()
+    }
+
     withType<JavaCompile> {
         sourceCompatibility = "17"
         targetCompatibility = "17"
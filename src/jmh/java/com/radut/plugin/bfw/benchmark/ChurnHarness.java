@@ -0,0 +1,586 @@
+package com.radut.plugin.bfw.benchmark;
+
+import com.radut.plugin.bfw.metrics.LatencyHistogram;
+import com.radut.plugin.bfw.metrics.WatcherMetrics;
+import com.radut.plugin.bfw.reload.AdaptiveDebouncer;
+import com.radut.plugin.bfw.roots.RootIndex;
+import com.radut.plugin.bfw.rules.CompiledRules;
+import com.radut.plugin.bfw.rules.FileClassifier;
+import com.radut.plugin.bfw.watch.BoundedEventQueue;
+import com.radut.plugin.bfw.watch.ChangeProcessor;
+import com.radut.plugin.bfw.watch.ContentFingerprints;
+import com.radut.plugin.bfw.watch.DirectorySnapshots;
+import com.radut.plugin.bfw.watch.FileEvent;
+import com.radut.plugin.bfw.watch.InotifyWatchBackend;
+import com.radut.plugin.bfw.watch.JdkWatchBackend;
+import com.radut.plugin.bfw.watch.ParallelDirectoryWalker;
+import com.radut.plugin.bfw.watch.StormDetector;
+import com.radut.plugin.bfw.watch.WatchBackend;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a configurable file churn (steady rate, bursts, directory creation/deletion, renames) in a temp directory
+ * through the watcher pipeline below the IDE: the backend, then the plugin's own {@link ChangeProcessor} (storm
+ * detection, overflow recovery from directory snapshots, coalescing, classification) and the reload debouncer,
+ * with registration and reloading reduced to what the harness needs. Reports detection latency percentiles, the number of
+ * reloads and every change that was never reported, and exits with status 1 if a limit is exceeded.
+ * <p>
+ * Run with {@code ./gradlew churn -Pchurn.args="--rate=500 --duration=60"}; options are listed in {@link Options}.
+ */
+public final class ChurnHarness {
+    private final Options options;
+    private final Random random;
+    private Path root;
+    private WatchBackend backend;
+    private final DirectorySnapshots snapshots = new DirectorySnapshots();
+    private final BoundedEventQueue eventQueue = new BoundedEventQueue(65_536);
+    private final WatcherMetrics metrics = new WatcherMetrics();
+
+    // Changes made but not yet reported, with the time they were made
+    private final Map<Path, Long> pending = new ConcurrentHashMap<>();
+    // Pending changes that created the path: deleting it again before it is reported leaves nothing to report
+    private final Set<Path> pendingCreates = ConcurrentHashMap.newKeySet();
+    private final LatencyHistogram latencyNanos = new LatencyHistogram();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong rawEvents = new AtomicLong();
+    private final AtomicLong ignored = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final List<Path> files = new ArrayList<>();
+    private final List<Path> createdDirectories = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+    private int nextName;
+
+    private ChurnHarness(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        ChurnHarness harness = new ChurnHarness(options);
+        List<String> failures = harness.run();
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private List<String> run() throws Exception {
+        root = Files.createTempDirectory("bfw-churn");
+        ScheduledExecutorService debounceExecutor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService classifierExecutor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            int initialDirectories = SyntheticProject.createTree(root.resolve("project"), options.depth, options.fanOut, options.filesPerDirectory);
+            collectTree(root.resolve("project"));
+            backend = createBackend(options.backend);
+            long registrationStart = System.nanoTime();
+            registerTree(root, 0);
+            System.out.println("Registered " + backend.getWatchCount() + " directories (" + initialDirectories + " generated) with "
+                    + backend.getName() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - registrationStart) + " ms");
+
+            AdaptiveDebouncer debouncer = new AdaptiveDebouncer(debounceExecutor, reloads::incrementAndGet);
+            debouncer.configure(options.quietMs, options.maxWaitMs, true, false);
+            // Every file of the generated tree is relevant, as if the project were one content root
+            Path project = root.resolve("project");
+            FileClassifier classifier = new FileClassifier(root.toString(), CompiledRules.EMPTY,
+                    RootIndex.builder().add(project.toString(), RootIndex.CONTENT).build(), RootIndex.CONTENT);
+            ChangeProcessor processor = new ChangeProcessor(eventQueue, snapshots,
+                    new ContentFingerprints(16L * 1024 * 1024, 50_000), new StormDetector(options.stormThreshold, 1_000),
+                    metrics, 50, new HarnessHost(classifier, debouncer));
+            processor.start(classifierExecutor);
+            Thread watchThread = new Thread(this::watch, "churn-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+
+            generate();
+            long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.drainMs);
+            while (!pending.isEmpty() && System.nanoTime() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            // Let the last debounce fire before counting reloads
+            Thread.sleep(options.quietMs + 100);
+
+            backend.close();
+            watchThread.join(5_000);
+            processor.stop();
+            classifierExecutor.shutdown();
+            classifierExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            return report();
+        } finally {
+            debounceExecutor.shutdownNow();
+            classifierExecutor.shutdownNow();
+            SyntheticProject.deleteTree(root);
+        }
+    }
+
+    private static WatchBackend createBackend(String name) throws IOException {
+        if ("inotify".equals(name) || ("auto".equals(name) && InotifyWatchBackend.isSupported())) {
+            return new InotifyWatchBackend();
+        }
+        return new JdkWatchBackend();
+    }
+
+    // ---- Watcher side: the plugin's own classifier thread, with the IDE replaced by HarnessHost ----
+
+    private void watch() {
+        while (true) {
+            List<FileEvent> batch;
+            try {
+                batch = backend.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            rawEvents.addAndGet(batch.size());
+            batch.forEach(eventQueue::offer);
+        }
+    }
+
+    /**
+     * @param coveredAt if not 0, the contents found count as reported at this time
+     */
+    private void registerTree(Path dir, long coveredAt) {
+        new ParallelDirectoryWalker(path -> true, path -> {
+            try {
+                backend.register(path);
+                DirectorySnapshots.Snapshot listing = snapshots.update(path);
+                if (coveredAt != 0 && listing != null) {
+                    for (int i = 0; i < listing.getEntryCount(); i++) {
+                        record(path.resolve(listing.getName(i)), coveredAt);
+                    }
+                }
+            } catch (IOException e) {
+                // Deleted again before it could be registered
+            }
+        }).walkSequentially(dir);
+    }
+
+    private void unregisterTrees(Set<Path> roots) {
+        for (Path dir : new ArrayList<>(snapshots.getAll().keySet())) {
+            for (Path root : roots) {
+                if (dir.startsWith(root)) {
+                    backend.unregister(dir);
+                    snapshots.remove(dir);
+                    break;
+                }
+            }
+        }
+        roots.forEach(backend::unregister);
+    }
+
+    /**
+     * Where the plugin falls back to a full synchronize, every change made so far counts as reported.
+     */
+    private void coverAll(long now) {
+        for (Path path : new ArrayList<>(pending.keySet())) {
+            record(path, now);
+        }
+    }
+
+    private final class HarnessHost implements ChangeProcessor.Host {
+        private final FileClassifier classifier;
+        private final AdaptiveDebouncer debouncer;
+
+        HarnessHost(FileClassifier classifier, AdaptiveDebouncer debouncer) {
+            this.classifier = classifier;
+            this.debouncer = debouncer;
+        }
+
+        @NotNull
+        @Override
+        public FileClassifier createClassifier() {
+            return classifier;
+        }
+
+        @Override
+        public int getStormThreshold() {
+            return options.stormThreshold;
+        }
+
+        @Override
+        public boolean isSuppressUnchangedContent() {
+            return options.suppressUnchanged;
+        }
+
+        @Nullable
+        @Override
+        public Path getGitDir() {
+            return null;
+        }
+
+        @Override
+        public boolean isGitIgnored(@NotNull FileEvent event) {
+            return false;
+        }
+
+        @Override
+        public boolean isRegistered(@NotNull Path dir) {
+            return snapshots.get(dir) != null || backend.isWatched(dir);
+        }
+
+        @Override
+        public boolean isWatched(@NotNull Path dir) {
+            return backend.isWatched(dir);
+        }
+
+        @Override
+        public void changeDetected(@NotNull FileEvent event, @NotNull FileClassifier.Result result) {
+            long now = System.nanoTime();
+            record(event.getPath(), now);
+            if (event.getPreviousPath() != null) {
+                record(event.getPreviousPath(), now);
+            }
+        }
+
+        @Override
+        public void changeIgnored(@NotNull FileEvent event, @NotNull FileClassifier.Result result) {
+            ignored.incrementAndGet();
+        }
+
+        @Override
+        public void overflowLost(@Nullable Path dir) {
+            coverAll(System.nanoTime());
+        }
+
+        @Override
+        public void overflowRecovered(@Nullable Path dir, int events, long nanos) {
+            // Counted by the metrics
+        }
+
+        @Override
+        public void gitIgnoreChanged(@NotNull Path dir) {
+            // The generated tree has no .gitignore
+        }
+
+        @Override
+        public void directoriesChanged(@NotNull Set<Path> removed, @NotNull List<Path> created) {
+            unregisterTrees(removed);
+            long now = System.nanoTime();
+            for (Path dir : created) {
+                // The reload refreshes a new directory recursively, so whatever it already contains is covered
+                registerTree(dir, now);
+            }
+        }
+
+        @Override
+        public void batchProcessed(int relevantChanges, boolean overflow) {
+            if (overflow) {
+                debouncer.onEvent(Integer.MAX_VALUE);
+            } else if (relevantChanges > 0) {
+                debouncer.onEvent(relevantChanges);
+            }
+        }
+
+        @Override
+        public void stormStarted(boolean headMoved) {
+            // Counted by the metrics when it ends
+        }
+
+        @Override
+        public void stormEnded(@NotNull StormDetector.Storm storm) {
+            if (storm.getEvents() == 0) {
+                return;
+            }
+            coverAll(System.nanoTime());
+            Set<Path> vanished = new HashSet<>();
+            for (Path dir : snapshots.getAll().keySet()) {
+                if (!Files.isDirectory(dir)) {
+                    vanished.add(dir);
+                }
+            }
+            unregisterTrees(vanished);
+            registerTree(root, 0);
+            debouncer.onEvent(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void batchFailed(@NotNull Exception e) {
+            failedBatches.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    private void record(Path path, long now) {
+        Long madeAt = pending.remove(path);
+        pendingCreates.remove(path);
+        if (madeAt != null) {
+            latencyNanos.record(now - madeAt);
+        }
+    }
+
+    // ---- Generator side ----
+
+    private void collectTree(Path dir) throws IOException {
+        directories.add(dir);
+        try (var children = Files.list(dir)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                if (Files.isDirectory(child)) {
+                    collectTree(child);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    private void generate() throws IOException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, options.rate);
+        long nextBurst = options.burstEverySeconds > 0 ? start + TimeUnit.SECONDS.toNanos(options.burstEverySeconds) : Long.MAX_VALUE;
+        long next = start;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                return;
+            }
+            if (now >= nextBurst) {
+                for (int i = 0; i < options.burstSize; i++) {
+                    operate();
+                }
+                nextBurst += TimeUnit.SECONDS.toNanos(options.burstEverySeconds);
+            }
+            if (now < next) {
+                LockSupport.parkNanos(Math.min(next - now, end - now));
+                continue;
+            }
+            operate();
+            next += interval;
+        }
+    }
+
+    private void operate() throws IOException {
+        operations.incrementAndGet();
+        int roll = random.nextInt(100);
+        if (roll < options.directoryPercent) {
+            if (random.nextBoolean() || createdDirectories.isEmpty()) {
+                createDirectory();
+            } else {
+                deleteDirectory();
+            }
+        } else if (roll < options.directoryPercent + options.renamePercent && !files.isEmpty()) {
+            renameFile();
+        } else if (files.isEmpty() || roll % 10 < 3) {
+            createFile();
+        } else if (roll % 10 < 8) {
+            modifyFile();
+        } else {
+            deleteFile();
+        }
+    }
+
+    private void createFile() throws IOException {
+        Path file = directories.get(random.nextInt(directories.size())).resolve("New" + nextName++ + ".java");
+        expectCreate(file);
+        Files.write(file, content());
+        files.add(file);
+    }
+
+    private void modifyFile() throws IOException {
+        Path file = files.get(random.nextInt(files.size()));
+        expect(file);
+        Files.write(file, content());
+    }
+
+    private void deleteFile() throws IOException {
+        Path file = removeRandom(files);
+        expectDelete(file);
+        Files.delete(file);
+    }
+
+    private void renameFile() throws IOException {
+        Path from = removeRandom(files);
+        Path to = directories.get(random.nextInt(directories.size())).resolve("Moved" + nextName++ + ".java");
+        // Both ends have to be reported: the old path leaves the VFS, the new one enters it
+        expectDelete(from);
+        expectCreate(to);
+        Files.move(from, to);
+        files.add(to);
+    }
+
+    private void createDirectory() throws IOException {
+        Path parent = directories.get(random.nextInt(directories.size()));
+        Path dir = parent.resolve("gen" + nextName++);
+        expectCreate(dir);
+        Files.createDirectory(dir);
+        // Created right away, before the watcher registered the directory: only found by its registration walk
+        Files.write(dir.resolve("Inside.java"), content());
+        files.add(dir.resolve("Inside.java"));
+        createdDirectories.add(dir);
+        directories.add(dir);
+    }
+
+    private void deleteDirectory() throws IOException {
+        Path dir = removeRandom(createdDirectories);
+        directories.removeIf(d -> d.startsWith(dir));
+        createdDirectories.removeIf(d -> d.startsWith(dir));
+        files.removeIf(file -> file.startsWith(dir));
+        // Whatever changed inside is not reported separately once the directory is gone
+        for (Path path : new ArrayList<>(pending.keySet())) {
+            if (path.startsWith(dir) && !path.equals(dir)) {
+                supersede(path);
+            }
+        }
+        expectDelete(dir);
+        SyntheticProject.deleteTree(dir);
+    }
+
+    private void expect(Path path) {
+        // Set before touching the disk, so the event can never be seen first
+        if (pending.put(path, System.nanoTime()) != null) {
+            // The earlier change to this path may be coalesced with this one
+            superseded.incrementAndGet();
+        }
+    }
+
+    private void expectCreate(Path path) {
+        expect(path);
+        pendingCreates.add(path);
+    }
+
+    private void expectDelete(Path path) {
+        // Created and deleted before the watcher reported either: coalescing rightly reports nothing
+        if (pendingCreates.remove(path) && pending.remove(path) != null) {
+            superseded.incrementAndGet();
+            return;
+        }
+        expect(path);
+    }
+
+    private void supersede(Path path) {
+        pendingCreates.remove(path);
+        if (pending.remove(path) != null) {
+            superseded.incrementAndGet();
+        }
+    }
+
+    private byte[] content() {
+        return ("// " + random.nextLong() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Path removeRandom(List<Path> paths) {
+        int index = random.nextInt(paths.size());
+        Path last = paths.remove(paths.size() - 1);
+        return index < paths.size() ? paths.set(index, last) : last;
+    }
+
+    // ---- Results ----
+
+    private List<String> report() {
+        long p50 = toMillis(latencyNanos.getValueAtPercentile(50));
+        long p95 = toMillis(latencyNanos.getValueAtPercentile(95));
+        long p99 = toMillis(latencyNanos.getValueAtPercentile(99));
+        System.out.println("Operations: " + operations.get() + " (" + superseded.get() + " superseded by a later change to the same path)");
+        System.out.println("Raw events: " + rawEvents.get() + ", overflows: " + metrics.getOverflows() + ", storms: " + metrics.getStorms()
+                + ", ignored: " + ignored.get());
+        System.out.println("Detection latency (ms): p50 " + p50 + " / p95 " + p95 + " / p99 " + p99
+                + " / max " + toMillis(latencyNanos.getMax()) + " over " + latencyNanos.getCount() + " changes");
+        System.out.println("Reloads: " + reloads.get());
+        System.out.println("Lost changes: " + pending.size());
+        Map<Path, Long> sample = new HashMap<>();
+        pending.entrySet().stream().limit(20).forEach(e -> sample.put(e.getKey(), e.getValue()));
+        sample.keySet().forEach(path -> System.out.println("  never reported: " + root.relativize(path)));
+
+        List<String> failures = new ArrayList<>();
+        if (!pending.isEmpty()) {
+            failures.add(pending.size() + " changes were never reported");
+        }
+        if (failedBatches.get() > 0) {
+            failures.add(failedBatches.get() + " batches failed");
+        }
+        if (options.maxP99Ms >= 0 && p99 > options.maxP99Ms) {
+            failures.add("p99 detection latency " + p99 + " ms exceeds " + options.maxP99Ms + " ms");
+        }
+        if (options.maxReloads >= 0 && reloads.get() > options.maxReloads) {
+            failures.add(reloads.get() + " reloads exceed " + options.maxReloads);
+        }
+        return failures;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Command line options, as {@code --name=value}.
+     */
+    static final class Options {
+        String backend = "auto";        // auto, inotify or jdk
+        int rate = 200;                 // steady operations per second
+        int durationSeconds = 30;
+        int burstSize = 2000;           // extra operations made back to back...
+        int burstEverySeconds = 10;     // ...this often (0 disables bursts)
+        int directoryPercent = 5;       // operations creating or deleting a directory
+        int renamePercent = 10;
+        int depth = 4;                  // initial tree
+        int fanOut = 6;
+        int filesPerDirectory = 3;
+        long quietMs = 500;             // debounce settings, as in the plugin settings
+        long maxWaitMs = 5_000;
+        int stormThreshold = 0;         // as in the plugin settings; off by default, a storm hides per-change latency
+        boolean suppressUnchanged = false;
+        long drainMs = 5_000;           // time allowed for the last changes to be reported
+        long maxP99Ms = -1;             // limits; negative means not checked
+        long maxReloads = -1;
+        long seed = 1;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.isBlank()) {
+                    continue;
+                }
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value: " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "backend": options.backend = value; break;
+                    case "rate": options.rate = Integer.parseInt(value); break;
+                    case "duration": options.durationSeconds = Integer.parseInt(value); break;
+                    case "burst": options.burstSize = Integer.parseInt(value); break;
+                    case "burst-every": options.burstEverySeconds = Integer.parseInt(value); break;
+                    case "dirs": options.directoryPercent = Integer.parseInt(value); break;
+                    case "renames": options.renamePercent = Integer.parseInt(value); break;
+                    case "depth": options.depth = Integer.parseInt(value); break;
+                    case "fan-out": options.fanOut = Integer.parseInt(value); break;
+                    case "files": options.filesPerDirectory = Integer.parseInt(value); break;
+                    case "quiet-ms": options.quietMs = Long.parseLong(value); break;
+                    case "max-wait-ms": options.maxWaitMs = Long.parseLong(value); break;
+                    case "storm-threshold": options.stormThreshold = Integer.parseInt(value); break;
+                    case "suppress-unchanged": options.suppressUnchanged = Boolean.parseBoolean(value); break;
+                    case "drain-ms": options.drainMs = Long.parseLong(value); break;
+                    case "max-p99-ms": options.maxP99Ms = Long.parseLong(value); break;
+                    case "max-reloads": options.maxReloads = Long.parseLong(value); break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.radut.plugin.bfw.benchmark;
+
+import com.radut.plugin.bfw.roots.RootIndex;
+import com.radut.plugin.bfw.rules.CompiledRules;
+import com.radut.plugin.bfw.rules.FileClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event classification cost: the {@link FileClassifier} the watcher uses (ignored rules, root categories,
+ * included rules) over thousands of module roots and hundreds of regex rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassificationBenchmark {
+    private static final int PATH_COUNT = 4096;
+
+    @Param({"100", "2000", "10000"})
+    public int modules;
+
+    @Param({"10", "200"})
+    public int rules;
+
+    private RootIndex rootIndex;
+    private CompiledRules compiledRules;
+    private FileClassifier classifier;
+    private String[] paths;
+    private String[] relativePaths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        rootIndex = SyntheticProject.rootIndex(modules);
+        compiledRules = CompiledRules.compile(SyntheticProject.includedRules(rules), SyntheticProject.ignoredRules(rules));
+        classifier = new FileClassifier(SyntheticProject.BASE_PATH, compiledRules, rootIndex,
+                RootIndex.SOURCE | RootIndex.TEST_SOURCE | RootIndex.GENERATED_SOURCE | RootIndex.CONTENT);
+        paths = SyntheticProject.eventPaths(modules, PATH_COUNT, 42);
+        relativePaths = new String[PATH_COUNT];
+        for (int i = 0; i < PATH_COUNT; i++) {
+            relativePaths[i] = SyntheticProject.relativePath(paths[i]);
+        }
+    }
+
+    @Benchmark
+    public FileClassifier.Result classify() {
+        return classifier.classify(paths[next++ & (PATH_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public int rootCategories() {
+        return rootIndex.classify(paths[next++ & (PATH_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public String ignoredRules() {
+        return compiledRules.findIgnored(relativePaths[next++ & (PATH_COUNT - 1)]);
+    }
+}
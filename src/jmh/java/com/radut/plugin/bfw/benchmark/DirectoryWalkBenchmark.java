@@ -0,0 +1,61 @@
+package com.radut.plugin.bfw.benchmark;
+
+import com.radut.plugin.bfw.watch.ParallelDirectoryWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Directory walk throughput of the startup registration, over deep and wide trees. The visitor only counts,
+ * so this measures listing and scheduling rather than the watch backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DirectoryWalkBenchmark {
+    // depth:fanOut, ~4k and ~20k directories
+    @Param({"12:2", "4:12"})
+    public String shape;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    private Path root;
+    private int directories;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] parts = shape.split(":");
+        root = Files.createTempDirectory("bfw-walk");
+        directories = SyntheticProject.createTree(root.resolve("project"), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticProject.deleteTree(root);
+    }
+
+    @Benchmark
+    public long walk() {
+        LongAdder visited = new LongAdder();
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(dir -> !dir.getFileName().toString().startsWith("."), dir -> visited.increment());
+        walker.walk(root.resolve("project"), parallelism);
+        if (visited.sum() != directories) {
+            throw new IllegalStateException("Visited " + visited.sum() + " of " + directories + " directories");
+        }
+        return visited.sum();
+    }
+}
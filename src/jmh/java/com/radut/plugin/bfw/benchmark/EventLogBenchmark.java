@@ -0,0 +1,80 @@
+package com.radut.plugin.bfw.benchmark;
+
+import com.radut.plugin.bfw.log.EventFilter;
+import com.radut.plugin.bfw.log.EventJournal;
+import com.radut.plugin.bfw.toolwindow.EventTableModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event log cost on the watch thread (journal append) and on the EDT (table model refresh after a batch),
+ * plus filtered selection over a full journal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventLogBenchmark {
+    private static final String[] TYPES = {"CREATE", "MODIFY", "DELETE", "RENAME"};
+    private static final int JOURNAL_SEGMENT_CAPACITY = 1 << 20;
+
+    @Param({"1", "100", "5000"})
+    public int batch;
+
+    private String[] paths;
+    private EventJournal journal;
+    private EventTableModel tableModel;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        paths = SyntheticProject.eventPaths(2000, 8192, 7);
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = SyntheticProject.relativePath(paths[i]);
+        }
+        // Rotation keeps the heap bounded however many iterations run
+        journal = EventJournal.inMemory(JOURNAL_SEGMENT_CAPACITY, 2);
+        tableModel = new EventTableModel(journal);
+    }
+
+    @Benchmark
+    public boolean appendAndRefresh() {
+        for (int i = 0; i < batch; i++) {
+            int n = next++;
+            journal.append(n, (n & 3) == 0, TYPES[n & 3], "InSource", paths[n & (paths.length - 1)]);
+        }
+        return tableModel.refresh();
+    }
+
+    /**
+     * A rule and path filter over a million events, as applied when the tool window filter changes.
+     */
+    @State(Scope.Benchmark)
+    public static class FullJournal {
+        EventJournal journal;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            String[] paths = SyntheticProject.eventPaths(2000, 8192, 11);
+            journal = EventJournal.inMemory(JOURNAL_SEGMENT_CAPACITY, 2);
+            for (int n = 0; n < JOURNAL_SEGMENT_CAPACITY; n++) {
+                journal.append(n, (n & 3) == 0, TYPES[n & 3], "Regex: rule" + (n % 100), SyntheticProject.relativePath(paths[n & 8191]));
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int selectFiltered(FullJournal state) {
+        EventFilter filter = new EventFilter(Boolean.TRUE, "CREATE", "rule4", "group1/", false);
+        return state.journal.select(filter, state.journal.getFirstIndex(), state.journal.size()).length;
+    }
+}
@@ -0,0 +1,132 @@
+package com.radut.plugin.bfw.benchmark;
+
+import com.radut.plugin.bfw.roots.RootIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates project layouts and rule sets shaped like large real projects, without an IDE.
+ */
+final class SyntheticProject {
+    static final String BASE_PATH = "/work/monorepo";
+
+    private static final String[] EXTENSIONS = {".java", ".kt", ".xml", ".properties", ".json", ".class", ".tmp", ".log"};
+
+    private SyntheticProject() {
+    }
+
+    /**
+     * Content, source, test and generated roots for each module, as rebuildProjectStructure() would collect them.
+     */
+    static RootIndex rootIndex(int modules) {
+        RootIndex.Builder builder = RootIndex.builder();
+        for (int i = 0; i < modules; i++) {
+            String module = modulePath(i);
+            builder.add(module, RootIndex.CONTENT);
+            builder.add(module + "/src/main/java", RootIndex.SOURCE);
+            builder.add(module + "/src/test/java", RootIndex.TEST_SOURCE);
+            builder.add(module + "/build/generated/sources/annotationProcessor", RootIndex.GENERATED_SOURCE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Newline-separated regexes in the style users write: extensions, directories and file name patterns.
+     */
+    static String includedRules(int count) {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    rules.append("generated-").append(i).append("/.*\\.java$");
+                    break;
+                case 1:
+                    rules.append(".*/schema").append(i).append("\\.(json|yaml)$");
+                    break;
+                default:
+                    rules.append("^config/env").append(i).append("/");
+                    break;
+            }
+            rules.append('\n');
+        }
+        return rules.toString();
+    }
+
+    static String ignoredRules(int count) {
+        StringBuilder rules = new StringBuilder("\\.git/\n\\.idea/\n/out/\n\\.tmp$\n\\.log$\n");
+        for (int i = 5; i < count; i++) {
+            rules.append("/tmp-").append(i).append("/\n");
+        }
+        return rules.toString();
+    }
+
+    /**
+     * Absolute paths of changed files spread over the modules: sources, tests, build output and config.
+     */
+    static String[] eventPaths(int modules, int count, long seed) {
+        Random random = new Random(seed);
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            String module = modulePath(random.nextInt(modules));
+            String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            switch (random.nextInt(4)) {
+                case 0:
+                    paths[i] = module + "/src/main/java/com/example/pkg" + random.nextInt(50) + "/Type" + random.nextInt(500) + extension;
+                    break;
+                case 1:
+                    paths[i] = module + "/src/test/java/com/example/pkg" + random.nextInt(50) + "/TypeTest" + random.nextInt(500) + extension;
+                    break;
+                case 2:
+                    paths[i] = module + "/build/classes/java/main/com/example/Type" + random.nextInt(500) + extension;
+                    break;
+                default:
+                    paths[i] = BASE_PATH + "/config/env" + random.nextInt(200) + "/settings" + extension;
+                    break;
+            }
+        }
+        return paths;
+    }
+
+    static String relativePath(String path) {
+        return path.startsWith(BASE_PATH) ? path.substring(BASE_PATH.length() + 1) : path;
+    }
+
+    /**
+     * Creates a tree of directories with the given depth and fan-out, plus a few files per directory.
+     *
+     * @return the number of directories created, including the root
+     */
+    static int createTree(Path root, int depth, int fanOut, int filesPerDirectory) throws IOException {
+        Files.createDirectories(root);
+        for (int i = 0; i < filesPerDirectory; i++) {
+            Files.createFile(root.resolve("File" + i + ".java"));
+        }
+        int created = 1;
+        if (depth > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                created += createTree(root.resolve("dir" + i), depth - 1, fanOut, filesPerDirectory);
+            }
+        }
+        return created;
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static String modulePath(int module) {
+        return BASE_PATH + "/group" + (module % 64) + "/module" + module;
+    }
+}
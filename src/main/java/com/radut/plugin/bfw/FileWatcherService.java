@@ -7,69 +7,233 @@ import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.ex.ActionUtil;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileTypeEvent;
+import com.intellij.openapi.fileTypes.FileTypeListener;
+import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
 import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.ProjectFileIndex;
 import com.intellij.openapi.roots.SourceFolder;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileManager;
-import com.intellij.openapi.wm.ToolWindow;
-import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.task.ProjectTaskContext;
+import com.intellij.task.ProjectTaskListener;
+import com.intellij.task.ProjectTaskManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.radut.plugin.bfw.log.EventJournal;
+import com.radut.plugin.bfw.metrics.WatcherMetrics;
+import com.radut.plugin.bfw.metrics.WatcherStats;
+import com.radut.plugin.bfw.reload.AdaptiveDebouncer;
+import com.radut.plugin.bfw.reload.AffectedModules;
+import com.radut.plugin.bfw.reload.DirtyPathSet;
+import com.radut.plugin.bfw.reload.TargetedRefresher;
+import com.radut.plugin.bfw.roots.RootIndex;
+import com.radut.plugin.bfw.rules.FileClassifier;
+import com.radut.plugin.bfw.rules.GitIgnoreExemptions;
+import com.radut.plugin.bfw.rules.GitIgnoreMatcher;
+import com.radut.plugin.bfw.rules.WatchScope;
 import com.radut.plugin.bfw.settings.FileWatcherSettings;
-import com.radut.plugin.bfw.toolwindow.FileWatcherToolWindowContent;
-import com.radut.plugin.bfw.toolwindow.FileWatcherToolWindowFactory;
-import com.intellij.ui.content.Content;
-import org.apache.commons.lang3.StringUtils;
+import com.radut.plugin.bfw.watch.BoundedEventQueue;
+import com.radut.plugin.bfw.watch.ChangeProcessor;
+import com.radut.plugin.bfw.watch.ContentFingerprints;
+import com.radut.plugin.bfw.watch.DirectoryPoller;
+import com.radut.plugin.bfw.watch.DirectorySnapshots;
+import com.radut.plugin.bfw.watch.FileEvent;
+import com.radut.plugin.bfw.watch.InotifyWatchBackend;
+import com.radut.plugin.bfw.watch.JdkWatchBackend;
+import com.radut.plugin.bfw.watch.ParallelDirectoryWalker;
+import com.radut.plugin.bfw.watch.PersistentSnapshotIndex;
+import com.radut.plugin.bfw.watch.ShardedWatchBackend;
+import com.radut.plugin.bfw.watch.StormDetector;
+import com.radut.plugin.bfw.watch.WatchBackend;
+import com.radut.plugin.bfw.watch.WatchBudget;
+import com.radut.plugin.bfw.watch.WatchMultiplexer;
+import com.radut.plugin.bfw.watch.WatchRegistry;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.model.java.JavaSourceRootType;
 
+import javax.management.JMException;
+import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FileWatcherService implements Disposable {
     private static final Logger LOG = Logger.getInstance(FileWatcherService.class);
     private static final String SYNC_ACTION_ID = "Synchronize";
     private static final String BUILD_ACTION_ID = "CompileDirty";
 
-    private static final String TOOL_WINDOW_ID = "File Watcher";
 
     private static final int REBUILD_DELAY_MS = 500;
     private static final int SHUTDOWN_TIMEOUT_SECONDS = 5;
-    private static final int WATCH_POLL_TIMEOUT_MS = 200;
+    private static final int EVENT_QUEUE_CAPACITY = 65_536;
+    private static final int COALESCE_WINDOW_MS = 50;
+    // Beyond this many changed paths a full synchronize is cheaper than refreshing them one by one
+    private static final int MAX_TARGETED_REFRESH_PATHS = 5_000;
+    private static final int STORM_QUIESCENCE_MS = 1_000;
+    // Larger files (binaries, archives) are never hashed
+    private static final long FINGERPRINT_MAX_FILE_SIZE = 16L * 1024 * 1024;
+    private static final int FINGERPRINT_MAX_ENTRIES = 50_000;
+    // 8 segments of 1M events, 17 bytes each
+    private static final int JOURNAL_SEGMENT_CAPACITY = 1 << 20;
+    private static final int JOURNAL_MAX_SEGMENTS = 8;
+    private static final long NO_BUILD = -1;
+    private static final int REGISTRATION_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // inotify watches left to other tools: at least this many, or 5% of the user's limit
+    private static final int WATCH_RESERVE = 1_024;
+    private static final int POLL_INTERVAL_SECONDS = 10;
 
     private final Project project;
-    private WatchService watchService;
-    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private WatchRegistry backend;
     private Thread watchThread;
+    // Runs the classifier's batches on the platform pool; no thread of its own while the project is idle
+    private final ScheduledExecutorService classifierExecutor;
+    private final BoundedEventQueue eventQueue = new BoundedEventQueue(EVENT_QUEUE_CAPACITY);
+    private final DirtyPathSet dirtyPaths = new DirtyPathSet(MAX_TARGETED_REFRESH_PATHS);
     private volatile boolean running = false;
     private final ScheduledExecutorService debounceExecutor;
-    private volatile boolean reloadScheduled = false;
+    private final AdaptiveDebouncer debouncer;
+    private volatile RootIndex rootIndex = RootIndex.EMPTY;
+    private volatile Set<String> excludedRoots = Set.of();
+    private volatile WatchScope watchScope = WatchScope.ALL;
+    // Null unless .gitignore files are respected
+    private volatile GitIgnoreMatcher gitIgnore;
+    // Subtrees the filters accept explicitly, which .gitignore does not prune
+    private volatile GitIgnoreExemptions gitIgnoreExemptions = GitIgnoreExemptions.NONE;
+    private final WatcherMetrics metrics = new WatcherMetrics();
+    private WatcherStats stats;
+    // Start of the burst of changes waiting for a reload, or 0
+    private final AtomicLong burstStartNanos = new AtomicLong();
+    // Burst start of the build the watcher requested (0 if unknown), or NO_BUILD
+    private final AtomicLong buildBurstStartNanos = new AtomicLong(NO_BUILD);
+    private volatile long buildStartNanos;
+    private final EventJournal eventJournal;
+    private final StormDetector stormDetector;
+    private final ChangeProcessor processor;
+    private final DirectorySnapshots snapshots = new DirectorySnapshots();
+    private volatile PersistentSnapshotIndex snapshotIndex;
+    private final ContentFingerprints fingerprints = new ContentFingerprints(FINGERPRINT_MAX_FILE_SIZE, FINGERPRINT_MAX_ENTRIES);
+    private volatile Path projectRoot;
+    private volatile Path gitDir;
+    // Directories registered beyond this are polled instead (inotify budget)
+    private volatile int watchLimit = Integer.MAX_VALUE;
+    private final DirectoryPoller poller = new DirectoryPoller(snapshots, this::onPolledChanges);
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicBoolean watchLimitWarned = new AtomicBoolean();
+    private ScheduledFuture<?> pollTask;
+    // Serializes watch set reconciliations
+    private final Object reconcileLock = new Object();
+    // Inputs of isWatchableDirectory the watched tree was last walked with; a reconcile without changes is skipped
+    private volatile List<Object> appliedWatchInputs = List.of();
 
     public FileWatcherService(@NotNull Project project) {
         this.project = project;
-        this.debounceExecutor = Executors.newSingleThreadScheduledExecutor();
+        // A bounded view of the platform pool: no thread of our own while nothing is scheduled
+        this.debounceExecutor = AppExecutorUtil.createBoundedScheduledExecutorService("FileWatcher-Debounce-" + project.getName(), 1);
+        this.debouncer = new AdaptiveDebouncer(debounceExecutor, this::triggerReloadFromDisk);
+        this.classifierExecutor = AppExecutorUtil.createBoundedScheduledExecutorService("FileWatcher-Classifier-" + project.getName(), 1);
+        this.eventJournal = openEventJournal();
+        this.stormDetector = new StormDetector(FileWatcherSettings.getInstance(project).getStormThreshold(), STORM_QUIESCENCE_MS);
+        this.processor = new ChangeProcessor(eventQueue, snapshots, fingerprints, stormDetector, metrics, COALESCE_WINDOW_MS, new ProcessorHost());
+
+        // Keep the root index, exclusion set and watched directories in sync with module/content root changes
+        project.getMessageBus().connect(this).subscribe(ModuleRootListener.TOPIC, new ModuleRootListener() {
+            @Override
+            public void rootsChanged(@NotNull ModuleRootEvent event) {
+                if (running) {
+                    Set<String> previousExcluded = excludedRoots;
+                    WatchScope previousScope = watchScope;
+                    rebuildProjectStructure();
+                    if (!watchScope.equals(previousScope)) {
+                        // Roots of an enabled category moved: the scope is re-applied to the whole tree
+                        reconcileWatches("module roots changed");
+                    } else {
+                        AppExecutorUtil.getAppExecutorService().execute(() -> reconcileExclusions(previousExcluded));
+                    }
+                }
+            }
+        });
+        // The IDE's ignored files and folders list decides which directories are watchable
+        ApplicationManager.getApplication().getMessageBus().connect(this).subscribe(FileTypeManager.TOPIC, new FileTypeListener() {
+            @Override
+            public void fileTypesChanged(@NotNull FileTypeEvent event) {
+                reconcileWatches("ignored files changed");
+            }
+        });
+        // Builds report completion only through this topic; only the ones we requested are measured
+        project.getMessageBus().connect(this).subscribe(ProjectTaskListener.TOPIC, new ProjectTaskListener() {
+            @Override
+            public void started(@NotNull ProjectTaskContext context) {
+                if (buildBurstStartNanos.get() != NO_BUILD) {
+                    buildStartNanos = System.nanoTime();
+                }
+            }
+
+            @Override
+            public void finished(@NotNull ProjectTaskManager.Result result) {
+                long burstStart = buildBurstStartNanos.getAndSet(NO_BUILD);
+                long buildStart = buildStartNanos;
+                if (burstStart == NO_BUILD || buildStart == 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                buildStartNanos = 0;
+                metrics.recordBuild(now - buildStart, burstStart != 0 ? now - burstStart : -1);
+            }
+        });
+        try {
+            stats = WatcherStats.register(metrics, project.getName(), project.getLocationHash());
+        } catch (JMException e) {
+            LOG.warn("Could not register watcher statistics MBean for project: " + project.getName(), e);
+        }
+    }
+
+    public WatcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * History of processed and ignored events, shown in the tool window.
+     */
+    public EventJournal getEventJournal() {
+        return eventJournal;
+    }
+
+    private EventJournal openEventJournal() {
+        Path dir = Paths.get(PathManager.getSystemPath(), "background-file-watcher", project.getLocationHash(), "journal");
+        try {
+            return EventJournal.open(dir, JOURNAL_SEGMENT_CAPACITY, JOURNAL_MAX_SEGMENTS);
+        } catch (IOException e) {
+            LOG.warn("Could not create event journal in " + dir + ", keeping a shorter history in memory", e);
+            return EventJournal.inMemory(JOURNAL_SEGMENT_CAPACITY / 16, JOURNAL_MAX_SEGMENTS);
+        }
     }
 
     public void startWatching() {
@@ -79,321 +243,717 @@ public class FileWatcherService implements Disposable {
         }
 
         try {
-            watchService = FileSystems.getDefault().newWatchService();
             String basePath = project.getBasePath();
             if (basePath == null) {
                 LOG.warn("Project base path is null, cannot start watching");
                 return;
             }
+            FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
+            PersistentSnapshotIndex index = settings.isDetectOfflineChanges() ? openSnapshotIndex() : null;
+
+            rebuildProjectStructure();
 
             Path projectPath = Paths.get(basePath);
-            registerDirectories(projectPath);
+            projectRoot = projectPath;
+            // A shared watcher pushes events from its own loop; our own backend needs a thread to take them
+            WatchBackend ownBackend = null;
+            if (settings.isSharedWatcher()) {
+                backend = connectSharedBackend(settings.isUseNativeWatcher(), settings.getWatcherShards(), projectPath);
+            } else {
+                ownBackend = createBackend(settings.isUseNativeWatcher(), settings.getWatcherShards(), projectPath);
+                backend = ownBackend;
+            }
+            planWatchBudget();
+            long registrationStart = System.nanoTime();
+            appliedWatchInputs = getWatchInputs();
+            registerWithinBudget(projectPath);
+            registerGitDirectory(projectPath);
+            long registrationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - registrationStart);
+            int watchCount = backend.getWatchCount();
+            metrics.recordStartup(registrationMillis, watchCount);
+            recordWatchCounts();
+            LOG.info("Registered " + watchCount + " directories with " + backend.getName() + " in " + registrationMillis + " ms for project: " + project.getName());
+
+            List<FileEvent> offlineChanges = index != null ? findOfflineChanges(index) : List.of();
 
             running = true;
-            watchThread = new Thread(this::watchForChanges, "FileWatcher-" + project.getName());
-            watchThread.setDaemon(true);
-            watchThread.start();
+            processor.start(classifierExecutor);
+            if (ownBackend != null) {
+                WatchBackend source = ownBackend;
+                watchThread = new Thread(() -> watchForChanges(source), "FileWatcher-" + project.getName());
+                watchThread.setDaemon(true);
+                watchThread.start();
+            }
+
+            pollTask = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(() -> {
+                // Listing can take a while; keep the shared scheduler free
+                if (!poller.isEmpty() && polling.compareAndSet(false, true)) {
+                    AppExecutorUtil.getAppExecutorService().execute(this::pollUnwatched);
+                }
+            }, POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
             LOG.info("Started watching files in project: " + project.getName());
+
+            if (offlineChanges.size() > MAX_TARGETED_REFRESH_PATHS) {
+                dirtyPaths.markOverflow();
+                scheduleReload(Integer.MAX_VALUE);
+            } else {
+                // Classified and reloaded like one batch of live events
+                offlineChanges.forEach(eventQueue::offer);
+            }
         } catch (IOException e) {
             LOG.error("Failed to start file watching", e);
         }
     }
 
-    private void registerDirectories(Path root) throws IOException {
-        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+    @Nullable
+    private PersistentSnapshotIndex openSnapshotIndex() {
+        Path file = Paths.get(PathManager.getSystemPath(), "background-file-watcher", project.getLocationHash(), "snapshots.idx");
+        try {
+            return PersistentSnapshotIndex.open(file);
+        } catch (IOException e) {
+            LOG.warn("Could not open snapshot index " + file + ", changes made while the project was closed are not detected", e);
+            return null;
+        }
+    }
 
-        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                // Use read action to access VFS safely
-                return ApplicationManager.getApplication().runReadAction((com.intellij.openapi.util.Computable<FileVisitResult>) () -> {
-                    // Use IntelliJ's VFS to check if this directory should be excluded
-                    VirtualFile vFile = VirtualFileManager.getInstance().findFileByNioPath(dir);
-
-                    if (vFile != null) {
-                        // Check if this is an excluded directory (build output, etc.)
-                        if (fileIndex.isExcluded(vFile)) {
-                            LOG.debug("Skipping excluded directory: " + dir);
-                            return FileVisitResult.SKIP_SUBTREE;
+    /**
+     * Compares the listings taken during registration with the ones stored at the end of the previous session,
+     * then starts recording listing changes for the next one.
+     */
+    private List<FileEvent> findOfflineChanges(PersistentSnapshotIndex index) {
+        long start = System.nanoTime();
+        List<FileEvent> changes = List.of();
+        if (index.getBaselineSize() > 0) {
+            changes = snapshots.getAll().entrySet().parallelStream()
+                    .flatMap(entry -> {
+                        DirectorySnapshots.Snapshot previous = index.getBaseline(entry.getKey());
+                        if (previous == null) {
+                            // New since the last session; reported by its parent
+                            return Stream.empty();
                         }
+                        List<FileEvent> dirChanges = new ArrayList<>();
+                        previous.diff(entry.getKey(), entry.getValue(), dirChanges);
+                        return dirChanges.stream();
+                    })
+                    .collect(Collectors.toList());
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.recordOfflineChanges(changes.size(), millis);
+        LOG.info("Found " + changes.size() + " changes made while the project was closed in " + millis + " ms for project: " + project.getName());
 
-                        // Skip .git and .idea directories explicitly
-                        String dirName = dir.getFileName() != null ? dir.getFileName().toString() : "";
-                        if (dirName.equals(".git") || dirName.equals(".idea")) {
-                            LOG.debug("Skipping special directory: " + dir);
-                            return FileVisitResult.SKIP_SUBTREE;
-                        }
-                    }
+        try {
+            index.rewrite(snapshots.getAll());
+            snapshots.setListener((dir, snapshot) -> {
+                try {
+                    index.append(dir, snapshot);
+                    index.compactIfNeeded(snapshots.getAll());
+                } catch (IOException e) {
+                    LOG.debug("Could not record listing of " + dir, e);
+                }
+            });
+            snapshotIndex = index;
+        } catch (IOException e) {
+            LOG.warn("Could not write snapshot index", e);
+            closeSnapshotIndex(index);
+        }
+        return changes;
+    }
 
-                    try {
-                        WatchKey key = dir.register(
-                                watchService,
-                                StandardWatchEventKinds.ENTRY_CREATE,
-                                StandardWatchEventKinds.ENTRY_MODIFY,
-                                StandardWatchEventKinds.ENTRY_DELETE
-                        );
-                        watchKeys.put(key, dir);
-                        LOG.debug("Registered watch for directory: " + dir);
-                    } catch (IOException e) {
-                        LOG.warn("Failed to register watch for directory: " + dir, e);
-                    }
+    private static void closeSnapshotIndex(PersistentSnapshotIndex index) {
+        try {
+            index.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing snapshot index", e);
+        }
+    }
+
+    private WatchRegistry connectSharedBackend(boolean preferNative, int shardCount, Path projectPath) throws IOException {
+        // Projects asking for the same backend share it; another configuration gets a shared watcher of its own
+        String configuration = (preferNative ? "native" : "jdk") + (shardCount > 1 ? "-" + shardCount + "-shards" : "");
+        WatchMultiplexer.Connection connection = SharedWatcherService.getInstance().connect(configuration, this::onSharedEvents,
+                () -> shardCount <= 1 ? createBackend(preferNative) : createShardedBackend(preferNative, shardCount, projectPath, "FileWatcher-Shared-Shard"));
+        if (connection.getSharedBackend() instanceof ShardedWatchBackend) {
+            ((ShardedWatchBackend) connection.getSharedBackend()).assignRoots(getContentRoots());
+        }
+        return connection;
+    }
+
+    private void onSharedEvents(List<FileEvent> batch) {
+        // Called on the shared loop thread: hand off just like watchForChanges()
+        handOff(batch);
+    }
+
+    /**
+     * Queues a batch for classification. Runs on the watch thread, or on the loop shared by every project:
+     * nothing here may block or read the disk.
+     */
+    private void handOff(List<FileEvent> batch) {
+        metrics.recordRawEvents(batch.size());
+        for (FileEvent event : batch) {
+            eventQueue.offer(event);
+        }
+    }
+
+    private boolean isGitIgnored(FileEvent event) {
+        GitIgnoreMatcher matcher = gitIgnore;
+        Path path = event.getPath();
+        if (matcher == null || path == null || event.getPreviousPath() != null || GitIgnoreMatcher.isGitIgnoreFile(path)
+                || event.getDir() != null && event.getDir().equals(gitDir)) {
+            return false;
+        }
+        if (gitIgnoreExemptions.covers(path.toString())) {
+            return false;
+        }
+        if (matcher.isInIgnoredDirectory(path)) {
+            return true;
+        }
+        // Without a stat the entry might be a directory that a "dir/" pattern re-includes; only modifications are safe to drop
+        return event.getKind() == FileEvent.Kind.MODIFY && matcher.isIgnored(path, false);
+    }
 
-                    return FileVisitResult.CONTINUE;
-                });
+    private WatchBackend createBackend(boolean preferNative, int shardCount, Path projectPath) throws IOException {
+        if (shardCount <= 1) {
+            return createBackend(preferNative);
+        }
+        ShardedWatchBackend sharded = createShardedBackend(preferNative, shardCount, projectPath, "FileWatcher-Shard-" + project.getName());
+        // Content roots are the natural unit of a monorepo; spread them evenly
+        sharded.assignRoots(getContentRoots());
+        metrics.initShards(shardCount);
+        sharded.setListener(new ShardedWatchBackend.Listener() {
+            @Override
+            public void queued(int shard, int events, long queuedEvents) {
+                metrics.recordShardQueued(shard, events, queuedEvents);
+            }
+
+            @Override
+            public void consumed(int shard, long queuedEvents) {
+                metrics.recordShardConsumed(shard, queuedEvents);
             }
         });
+        return sharded;
     }
 
-    private void watchForChanges() {
-        while (running) {
-            WatchKey key;
-            try {
-                key = watchService.poll(WATCH_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                if (key == null) {
-                    continue;
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+    private List<Path> getContentRoots() {
+        List<Path> contentRoots = new ArrayList<>();
+        rootIndex.forEachRoot((path, categories) -> {
+            if ((categories & RootIndex.CONTENT) != 0) {
+                contentRoots.add(Paths.get(path));
             }
+        });
+        contentRoots.sort(null);
+        return contentRoots;
+    }
 
-            Path dir = watchKeys.get(key);
-            if (dir == null) {
-                key.reset();
-                continue;
+    private static ShardedWatchBackend createShardedBackend(boolean preferNative, int shardCount, Path root, String threadName) throws IOException {
+        List<WatchBackend> shards = new ArrayList<>();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(createBackend(preferNative));
             }
+        } catch (IOException e) {
+            for (WatchBackend shard : shards) {
+                shard.close();
+            }
+            throw e;
+        }
+        return new ShardedWatchBackend(root, shards, threadName);
+    }
 
-            boolean hasRelevantChanges = false;
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-
-                if (kind == StandardWatchEventKinds.OVERFLOW) {
-                    continue;
+    private static WatchBackend createBackend(boolean preferNative) throws IOException {
+        if (preferNative) {
+            if (InotifyWatchBackend.isSupported()) {
+                try {
+                    return new InotifyWatchBackend();
+                } catch (IOException | LinkageError e) {
+                    LOG.warn("Native inotify watcher is not available, falling back to the JDK watch service", e);
                 }
+            } else {
+                LOG.info("Native watcher is only supported on Linux, using the JDK watch service");
+            }
+        }
+        return new JdkWatchBackend();
+    }
 
-                @SuppressWarnings("unchecked")
-                WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
-                Path fileName = pathEvent.context();
-                Path fullPath = dir.resolve(fileName);
-
-                // Check if this file should trigger a reload
-                FileCheckResult checkResult = checkFile(fullPath);
-                String changeType = kind.name().replace("ENTRY_", "");
-                if (checkResult.shouldProcess) {
-                    // Format event type: CREATE/MODIFY/DELETE
-                    String relativePath = getRelativePath(fullPath);
-                    LOG.info("Detected " + changeType + " in: " + relativePath + " [" + checkResult.matchedRule + "]");
-                    logToToolWindow(changeType, checkResult.matchedRule, checkResult.details, relativePath);
-                    hasRelevantChanges = true;
-                } else {
-                    // Log ignored event only if there's a valid ignore reason
-                    if (checkResult.details != null && !checkResult.details.isEmpty()) {
-                        String relativePath = getRelativePath(fullPath);
-                        logIgnoredToToolWindow(changeType, checkResult.matchedRule != null ? checkResult.matchedRule : "N/A",
-                                checkResult.details,
-                                relativePath);
-                    }
-                }
+    /**
+     * Limits this project's watches to what is left of the user's inotify limit, keeping a reserve for others.
+     */
+    private void planWatchBudget() {
+        WatchBudget budget = WatchBudget.read();
+        if (!budget.isLimited()) {
+            return;
+        }
+        int available = budget.getAvailable(Math.max(WATCH_RESERVE, budget.getMaxUserWatches() / 20));
+        watchLimit = (int) Math.min(Integer.MAX_VALUE, (long) backend.getWatchCount() + available);
+        metrics.recordWatchBudget(budget.getMaxUserWatches(), budget.getUsedWatches(), watchLimit);
+        LOG.info("inotify watches in use: " + budget.getUsedWatches() + " of " + budget.getMaxUserWatches()
+                + ", limit for project " + project.getName() + ": " + watchLimit);
+    }
+
+    /**
+     * Registers the tree like {@link #registerDirectories}, but when it does not fit in the watch limit the
+     * directories are registered by priority (source roots first, then shallow before deep) and the rest are polled.
+     */
+    private void registerWithinBudget(Path root) {
+        if (watchLimit == Integer.MAX_VALUE) {
+            registerDirectories(root, REGISTRATION_PARALLELISM);
+            return;
+        }
+        Queue<Path> found = new ConcurrentLinkedQueue<>();
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(this::isWatchableDirectory, found::add);
+        walker.walk(root, REGISTRATION_PARALLELISM);
+        List<Path> dirs = new ArrayList<>(found);
+        int available = Math.max(0, watchLimit - backend.getWatchCount());
+        if (dirs.size() <= available) {
+            dirs.parallelStream().forEach(this::registerDirectory);
+            return;
+        }
+        dirs.sort(registrationOrder());
+        LOG.warn(dirs.size() + " directories do not fit in the inotify watch limit (" + available + " available) for project: "
+                + project.getName() + ", polling the remaining " + (dirs.size() - available) + " every " + POLL_INTERVAL_SECONDS
+                + " s. Raise fs.inotify.max_user_watches to watch them all");
+        watchLimitWarned.set(true);
+        dirs.subList(0, available).parallelStream().forEach(this::registerDirectory);
+        dirs.subList(available, dirs.size()).parallelStream().forEach(this::pollDirectory);
+    }
+
+    /**
+     * Source, test and generated roots first, then content, then the rest; shallow before deep.
+     */
+    private Comparator<Path> registrationOrder() {
+        RootIndex index = rootIndex;
+        return Comparator.<Path>comparingInt(dir -> {
+            int categories = index.classify(dir.toString());
+            if ((categories & (RootIndex.SOURCE | RootIndex.TEST_SOURCE | RootIndex.GENERATED_SOURCE)) != 0) {
+                return 0;
+            }
+            return (categories & RootIndex.CONTENT) != 0 ? 1 : 2;
+        }).thenComparingInt(Path::getNameCount);
+    }
+
+    private void pollDirectory(Path dir) {
+        if (snapshots.update(dir) != null) {
+            poller.add(dir);
+        }
+    }
+
+    private void onPolledChanges(List<FileEvent> events) {
+        for (FileEvent event : events) {
+            eventQueue.offer(event);
+        }
+    }
 
-                // If a new directory was created, register it for watching
-                if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(fullPath)) {
+    /**
+     * Polls the directories over the watch limit, after moving as many as the limit allows back to the watcher.
+     */
+    private void pollUnwatched() {
+        try {
+            if (!running) {
+                return;
+            }
+            List<Path> promoted = new ArrayList<>();
+            int free = watchLimit - backend.getWatchCount();
+            if (free > 0) {
+                List<Path> dirs = poller.getDirectories();
+                dirs.sort(registrationOrder());
+                for (Path dir : dirs.subList(0, Math.min(free, dirs.size()))) {
                     try {
-                        registerDirectories(fullPath);
+                        backend.register(dir);
+                        promoted.add(dir);
                     } catch (IOException e) {
-                        LOG.warn("Failed to register new directory: " + fullPath, e);
+                        break;
                     }
                 }
             }
-
-            boolean valid = key.reset();
-            if (!valid) {
-                watchKeys.remove(key);
+            // Once more for the promoted ones: covers the changes made before their watch was added
+            int changes = poller.poll();
+            promoted.forEach(poller::remove);
+            metrics.recordPoll(changes);
+            if (!promoted.isEmpty()) {
+                LOG.info("Watching " + promoted.size() + " previously polled directories for project: " + project.getName());
             }
+            recordWatchCounts();
+        } finally {
+            polling.set(false);
+        }
+    }
 
-            if (hasRelevantChanges) {
-                scheduleReload();
+    private void recordWatchCounts() {
+        metrics.recordWatchedDirectories(backend.getWatchCount());
+        Map<String, Integer> subtrees = new HashMap<>();
+        if (!poller.isEmpty()) {
+            poller.getSubtrees().forEach((dir, count) -> subtrees.put(getRelativePath(dir), count));
+        }
+        metrics.recordPolledDirectories(poller.size(), subtrees);
+        if (backend instanceof ShardedWatchBackend) {
+            ShardedWatchBackend sharded = (ShardedWatchBackend) backend;
+            for (int i = 0; i < sharded.getShardCount(); i++) {
+                metrics.recordShardWatches(i, sharded.getShardWatchCount(i));
             }
         }
     }
 
-    private static class FileCheckResult {
-        boolean shouldProcess;
-        String matchedRule;
-        String details;
+    private void registerDirectories(Path root, int parallelism) {
+        registerDirectories(root, parallelism, this::registerDirectory);
+    }
 
-        FileCheckResult(boolean shouldProcess, String matchedRule, String details) {
-            this.shouldProcess = shouldProcess;
-            this.matchedRule = matchedRule;
-            this.details = details;
+    private void registerDirectories(Path root, int parallelism, Consumer<Path> register) {
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(this::isWatchableDirectory, register);
+        walker.walk(root, parallelism);
+        if (walker.getFailureCount() > 0) {
+            LOG.debug("Could not list " + walker.getFailureCount() + " directories under " + root);
         }
     }
 
-    private List<VirtualFile> getSourceRoots() {
-        List<VirtualFile> roots = new ArrayList<>();
-        ModuleManager moduleManager = ModuleManager.getInstance(project);
-        for (Module module : moduleManager.getModules()) {
-            ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
-            for (var contentEntry : rootManager.getContentEntries()) {
-                for (SourceFolder sourceFolder : contentEntry.getSourceFolders()) {
-                    if (sourceFolder.getRootType() == JavaSourceRootType.SOURCE) {
-                        VirtualFile file = sourceFolder.getFile();
-                        if (file != null) {
-                            roots.add(file);
-                        }
-                    }
-                }
+    private void registerGitDirectory(Path projectPath) {
+        // Only .git itself: HEAD/index writes announce checkouts and resets before the work tree changes
+        Path dir = projectPath.resolve(".git");
+        if (Files.isDirectory(dir)) {
+            try {
+                backend.register(dir);
+                gitDir = dir;
+            } catch (IOException e) {
+                LOG.warn("Failed to register watch for git directory: " + dir, e);
             }
         }
-        return roots;
     }
 
-    private List<VirtualFile> getTestSourceRoots() {
-        List<VirtualFile> roots = new ArrayList<>();
-        ModuleManager moduleManager = ModuleManager.getInstance(project);
-        for (Module module : moduleManager.getModules()) {
-            ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
-            for (var contentEntry : rootManager.getContentEntries()) {
-                for (SourceFolder sourceFolder : contentEntry.getSourceFolders()) {
-                    if (sourceFolder.getRootType() == JavaSourceRootType.TEST_SOURCE) {
-                        VirtualFile file = sourceFolder.getFile();
-                        if (file != null) {
-                            roots.add(file);
-                        }
-                    }
-                }
+    /**
+     * Unregisters the directories and every watched directory below them.
+     *
+     * @return the number of directories that were watched
+     */
+    private int unregisterTrees(Set<Path> roots) {
+        int removed = 0;
+        Set<Path> candidates = new HashSet<>(snapshots.getAll().keySet());
+        candidates.addAll(roots);
+        for (Path dir : candidates) {
+            if (!isUnderAny(dir, roots)) {
+                continue;
+            }
+            if (backend.isWatched(dir) || snapshots.get(dir) != null) {
+                removed++;
             }
+            backend.unregister(dir);
+            poller.remove(dir);
+            snapshots.remove(dir);
         }
-        return roots;
+        return removed;
     }
 
-    private List<VirtualFile> getGeneratedSourceRoots() {
-        List<VirtualFile> roots = new ArrayList<>();
-        ModuleManager moduleManager = ModuleManager.getInstance(project);
-        for (Module module : moduleManager.getModules()) {
-            ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
-            for (VirtualFile root : rootManager.getSourceRoots(false)) {
-                if (root.getPath().contains("generated")) {
-                    roots.add(root);
-                }
+    private static boolean isUnderAny(Path dir, Set<Path> roots) {
+        for (Path path = dir; path != null; path = path.getParent()) {
+            if (roots.contains(path)) {
+                return true;
             }
         }
-        return roots;
+        return false;
     }
 
-    private List<VirtualFile> getContentRoots() {
-        List<VirtualFile> roots = new ArrayList<>();
-        ModuleManager moduleManager = ModuleManager.getInstance(project);
-        for (Module module : moduleManager.getModules()) {
-            ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
-            for (VirtualFile contentRoot : rootManager.getContentRoots()) {
-                roots.add(contentRoot);
+    /**
+     * Applies a change of the excluded roots to the watched directories: only the roots that changed are
+     * unregistered or walked.
+     */
+    private void reconcileExclusions(Set<String> previousExcluded) {
+        Set<String> current = excludedRoots;
+        Set<Path> newlyExcluded = new HashSet<>();
+        List<Path> newlyIncluded = new ArrayList<>();
+        for (String path : current) {
+            if (!previousExcluded.contains(path)) {
+                newlyExcluded.add(Paths.get(path));
             }
         }
-        return roots;
+        for (String path : previousExcluded) {
+            if (!current.contains(path)) {
+                newlyIncluded.add(Paths.get(path));
+            }
+        }
+        appliedWatchInputs = getWatchInputs();
+        if (!newlyExcluded.isEmpty() || !newlyIncluded.isEmpty()) {
+            reconcile(newlyExcluded, newlyIncluded, "module roots changed");
+        }
     }
 
-    private boolean isPathUnderRoot(Path path, VirtualFile root) {
-        String pathStr = path.toString();
-        String rootPath = root.getPath();
-        return pathStr.startsWith(rootPath);
+    /**
+     * Re-applies the exclusion rules to the whole watched tree without restarting the watcher, e.g. after a
+     * settings change. Runs on a pooled thread; the backend only sees the directories that changed. Nothing is
+     * walked unless the scope, the exclusions or the ignore configuration changed since the last walk.
+     */
+    public void reconcileWatches(@NotNull String reason) {
+        if (!running) {
+            return;
+        }
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            updateWatchScope();
+            List<Object> inputs = getWatchInputs();
+            if (inputs.equals(appliedWatchInputs)) {
+                LOG.debug("Watched directories are up to date (" + reason + ") for project: " + project.getName());
+                return;
+            }
+            appliedWatchInputs = inputs;
+            Set<Path> unwatchable = new HashSet<>();
+            for (Path dir : snapshots.getAll().keySet()) {
+                if (!isWatchableDirectory(dir) || !Files.isDirectory(dir)) {
+                    unwatchable.add(dir);
+                }
+            }
+            Path root = projectRoot;
+            reconcile(unwatchable, root != null ? List.of(root) : List.of(), reason);
+        });
     }
 
-    private FileCheckResult checkFile(Path path) {
-        // This method needs read action to query VFS
-        return ApplicationManager.getApplication().runReadAction((com.intellij.openapi.util.Computable<FileCheckResult>) () -> {
-            FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
-            String pathStr = path.toString();
-            if (pathStr.startsWith(project.getBasePath())) {
-                pathStr = pathStr.substring(project.getBasePath().length() + 1);
-            }
-
-            // First, check ignored regex filters - if matches any, ignore the file
-            String ignoredRegexFilters = settings.getIgnoredRegexFilters();
-            if (ignoredRegexFilters != null && !ignoredRegexFilters.trim().isEmpty()) {
-                String[] patterns = ignoredRegexFilters.split("\n");
-                for (String patternStr : patterns) {
-                    patternStr = patternStr.trim();
-                    if (patternStr.isEmpty()) {
-                        continue;
-                    }
-
-                    try {
-                        Pattern pattern = Pattern.compile(patternStr);
-                        if (pattern.matcher(pathStr).find()) {
-                            return new FileCheckResult(false, "Ignore Regex", patternStr);
-                        }
-                    } catch (PatternSyntaxException e) {
-                        LOG.warn("Invalid ignored regex pattern: " + patternStr, e);
-                    }
+    /**
+     * Re-applies the rules below one directory, e.g. after its .gitignore changed.
+     */
+    private void reconcileSubtree(Path dir, String reason) {
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            Set<Path> unwatchable = new HashSet<>();
+            for (Path watched : snapshots.getAll().keySet()) {
+                if (watched.startsWith(dir) && !isWatchableDirectory(watched)) {
+                    unwatchable.add(watched);
                 }
             }
+            reconcile(unwatchable, List.of(dir), reason);
+        });
+    }
 
-            // Check if included regex is configured
-            String regexFilters = settings.getPathRegexFilters();
-            boolean hasIncludedRegex = regexFilters != null && !regexFilters.trim().isEmpty();
-
-
-            if (settings.isInGeneratedSource()) {
-                for (VirtualFile root : getGeneratedSourceRoots()) {
-                    if (isPathUnderRoot(path, root)) {
-                        return new FileCheckResult(true, "InGeneratedSource", null);
-                    }
+    private void reconcile(Set<Path> pruneRoots, List<Path> walkRoots, String reason) {
+        synchronized (reconcileLock) {
+            if (!running) {
+                return;
+            }
+            long start = System.nanoTime();
+            int before = backend.getWatchCount();
+            int removed = pruneRoots.isEmpty() ? 0 : unregisterTrees(pruneRoots);
+            for (Path root : walkRoots) {
+                // Below another exclusion or a deleted directory a root stays unwatched
+                Path parent = root.getParent();
+                boolean reachable = root.equals(projectRoot) || (parent != null && backend.isWatched(parent));
+                if (reachable && Files.isDirectory(root) && isWatchableDirectory(root)) {
+                    // Directories that stay watched keep their listing: events already keep it current
+                    registerDirectories(root, REGISTRATION_PARALLELISM, this::registerUnwatchedDirectory);
                 }
             }
+            int after = backend.getWatchCount();
+            int added = Math.max(0, after - (before - removed));
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            metrics.recordReconcile(added, removed, millis);
+            recordWatchCounts();
+            LOG.info("Reconciled watched directories (" + reason + "): +" + added + "/-" + removed + " in " + millis + " ms, "
+                    + after + " watched for project: " + project.getName());
+        }
+    }
 
-            if (settings.isInSource()) {
-                for (VirtualFile root : getSourceRoots()) {
-                    if (isPathUnderRoot(path, root)) {
-                        return new FileCheckResult(true, "InSource", null);
-                    }
-                }
+    private void registerNewDirectories(List<Path> roots) {
+        // New trees are usually small, so walk them on the watch thread against the cached exclusion set
+        for (Path root : roots) {
+            if (isWatchableDirectory(root)) {
+                registerDirectories(root, 1);
             }
+        }
+    }
 
-            if (settings.isInTestSource()) {
-                for (VirtualFile root : getTestSourceRoots()) {
-                    if (isPathUnderRoot(path, root)) {
-                        return new FileCheckResult(true, "InTestSource", null);
-                    }
+    private boolean isWatchableDirectory(Path dir) {
+        // Skip .git and .idea directories explicitly
+        if (isSpecialDirectory(dir)) {
+            LOG.debug("Skipping special directory: " + dir);
+            return false;
+        }
+        Path fileName = dir.getFileName();
+        if (fileName != null && FileTypeManager.getInstance().isFileIgnored(fileName.toString())) {
+            LOG.debug("Skipping ignored directory: " + dir);
+            return false;
+        }
+        // Excluded directory (build output, etc.)
+        if (excludedRoots.contains(FileUtil.toSystemIndependentName(dir.toString()))) {
+            LOG.debug("Skipping excluded directory: " + dir);
+            return false;
+        }
+        // No enabled filter can accept a file in there
+        if (!watchScope.contains(dir.toString())) {
+            LOG.debug("Skipping directory outside the watch scope: " + dir);
+            return false;
+        }
+        // Untracked output (node_modules, target, caches) that IntelliJ does not exclude
+        // except where an enabled root or an include filter accepts files, e.g. generated sources below target
+        GitIgnoreMatcher matcher = gitIgnore;
+        if (matcher != null && !gitIgnoreExemptions.coversOrContains(dir.toString()) && matcher.isIgnored(dir, true)) {
+            LOG.debug("Skipping git-ignored directory: " + dir);
+            return false;
+        }
+        return true;
+    }
+
+    private void registerDirectory(Path dir) {
+        if (!backend.isWatched(dir)) {
+            if (poller.contains(dir)) {
+                return;
+            }
+            if (backend.getWatchCount() >= watchLimit) {
+                pollDirectory(dir);
+                return;
+            }
+            try {
+                backend.register(dir);
+                LOG.debug("Registered watch for directory: " + dir);
+            } catch (IOException e) {
+                // Usually the inotify limit, reached because of other tools; poll instead of leaving it unwatched
+                if (!watchLimitWarned.getAndSet(true)) {
+                    LOG.warn("Failed to register watch for directory: " + dir + ", polling it and further directories that cannot be watched", e);
+                } else {
+                    LOG.debug("Failed to register watch for directory: " + dir, e);
                 }
+                pollDirectory(dir);
+                return;
             }
+        }
+        // Keep the listing so that events lost in an overflow can be reconstructed
+        snapshots.update(dir);
+    }
 
+    private void registerUnwatchedDirectory(Path dir) {
+        if (!isRegistered(dir)) {
+            registerDirectory(dir);
+        }
+    }
 
-            if (settings.isInContent()) {
-                for (VirtualFile root : getContentRoots()) {
-                    if (isPathUnderRoot(path, root)) {
-                        return new FileCheckResult(true, "InProjectContent", null);
-                    }
-                }
+    /**
+     * What {@link #isWatchableDirectory} depends on besides the directory itself.
+     */
+    private List<Object> getWatchInputs() {
+        return List.of(watchScope, excludedRoots, gitIgnore != null, gitIgnoreExemptions, FileTypeManager.getInstance().getIgnoredFilesList());
+    }
+
+    private boolean isRegistered(Path dir) {
+        return snapshots.get(dir) != null || backend.isWatched(dir);
+    }
+
+    private static boolean isSpecialDirectory(Path dir) {
+        String dirName = dir.getFileName() != null ? dir.getFileName().toString() : "";
+        return dirName.equals(".git") || dirName.equals(".idea");
+    }
+
+    private void watchForChanges(WatchBackend source) {
+        while (running) {
+            List<FileEvent> batch;
+            try {
+                // Blocks until the backend has events; dispose() closes the backend to wake us up
+                batch = source.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
             }
 
-            // Apply included regex filters
-            if (hasIncludedRegex) {
-                String[] patterns = regexFilters.split("\n");
-                for (String patternStr : patterns) {
-                    patternStr = patternStr.trim();
-                    if (patternStr.isEmpty()) {
-                        continue;
-                    }
+            // Hand off immediately so the backend is drained again as fast as possible
+            handOff(batch);
+        }
+    }
 
-                    try {
-                        Pattern pattern = Pattern.compile(patternStr);
-                        if (pattern.matcher(pathStr).find()) {
-                            return new FileCheckResult(true, "Regex: " + patternStr, null);
+    private void rebuildProjectStructure() {
+        long start = System.nanoTime();
+        AtomicLong started = new AtomicLong(start);
+        Set<String> excluded = new HashSet<>();
+        RootIndex index = ApplicationManager.getApplication().runReadAction((com.intellij.openapi.util.Computable<RootIndex>) () -> {
+            started.set(System.nanoTime());
+            RootIndex.Builder builder = RootIndex.builder();
+            for (Module module : ModuleManager.getInstance(project).getModules()) {
+                ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
+                for (VirtualFile excludeRoot : rootManager.getExcludeRoots()) {
+                    excluded.add(excludeRoot.getPath());
+                }
+                for (var contentEntry : rootManager.getContentEntries()) {
+                    for (SourceFolder sourceFolder : contentEntry.getSourceFolders()) {
+                        VirtualFile file = sourceFolder.getFile();
+                        if (file == null) {
+                            continue;
+                        }
+                        if (sourceFolder.getRootType() == JavaSourceRootType.SOURCE) {
+                            builder.add(file.getPath(), RootIndex.SOURCE);
+                        } else if (sourceFolder.getRootType() == JavaSourceRootType.TEST_SOURCE) {
+                            builder.add(file.getPath(), RootIndex.TEST_SOURCE);
                         }
-                    } catch (PatternSyntaxException e) {
-                        LOG.warn("Invalid included regex pattern: " + patternStr, e);
                     }
                 }
+                for (VirtualFile root : rootManager.getSourceRoots(false)) {
+                    if (root.getPath().contains("generated")) {
+                        builder.add(root.getPath(), RootIndex.GENERATED_SOURCE);
+                    }
+                }
+                for (VirtualFile contentRoot : rootManager.getContentRoots()) {
+                    builder.add(contentRoot.getPath(), RootIndex.CONTENT);
+                }
             }
+            return builder.build();
+        });
+        metrics.recordReadLockWait(started.get() - start);
+        rootIndex = index;
+        excludedRoots = excluded;
+        updateWatchScope();
+        LOG.debug("Rebuilt root index with " + index.getRootCount() + " roots and " + excluded.size() + " excluded roots in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
 
-            // No filters matched - reject the file
-            return new FileCheckResult(false, "None", "No filters matched");
+    /**
+     * Narrows the watched directories to the subtrees the enabled filters can accept files in, and exempts the
+     * subtrees they accept explicitly from .gitignore.
+     */
+    private void updateWatchScope() {
+        FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
+        String basePath = project.getBasePath();
+        int enabled = getEnabledCategories(settings);
+        List<String> roots = new ArrayList<>();
+        List<String> exemptRoots = new ArrayList<>();
+        rootIndex.forEachRoot((path, categories) -> {
+            if ((categories & enabled) != 0) {
+                roots.add(Paths.get(path).toString());
+            }
+            // Content roots span the whole module: exempting them would leave nothing for .gitignore to prune
+            if ((categories & enabled & ~RootIndex.CONTENT) != 0) {
+                exemptRoots.add(Paths.get(path).toString());
+            }
         });
+        if (!settings.isRespectGitIgnore() || basePath == null) {
+            gitIgnore = null;
+            gitIgnoreExemptions = GitIgnoreExemptions.NONE;
+        } else {
+            if (gitIgnore == null) {
+                gitIgnore = new GitIgnoreMatcher(Paths.get(basePath));
+            }
+            gitIgnoreExemptions = GitIgnoreExemptions.compute(Paths.get(basePath).toString(), exemptRoots, settings.getCompiledRules(), File.separatorChar);
+        }
+        if (!settings.isMinimalWatchSet() || basePath == null) {
+            watchScope = WatchScope.ALL;
+            return;
+        }
+        WatchScope scope = WatchScope.compute(Paths.get(basePath).toString(), roots, settings.getCompiledRules(), File.separatorChar);
+        if (!scope.equals(watchScope)) {
+            LOG.info("Watch scope: " + scope.describe() + " for project: " + project.getName());
+        }
+        watchScope = scope;
     }
 
-    private boolean shouldProcessFile(Path path) {
-        return checkFile(path).shouldProcess;
+    /**
+     * Snapshot of the current filters and roots, taken once per batch.
+     */
+    private FileClassifier createClassifier() {
+        FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
+        return new FileClassifier(project.getBasePath(), settings.getCompiledRules(), rootIndex, getEnabledCategories(settings));
+    }
+
+    private static int getEnabledCategories(FileWatcherSettings settings) {
+        return (settings.isInSource() ? RootIndex.SOURCE : 0)
+                | (settings.isInTestSource() ? RootIndex.TEST_SOURCE : 0)
+                | (settings.isInGeneratedSource() ? RootIndex.GENERATED_SOURCE : 0)
+                | (settings.isInContent() ? RootIndex.CONTENT : 0);
+    }
+
+    private String getDisplayPath(FileEvent event) {
+        if (event.getPreviousPath() != null) {
+            return getRelativePath(event.getPreviousPath()) + " -> " + getRelativePath(event.getPath());
+        }
+        return getRelativePath(event.getPath());
     }
 
     private String getRelativePath(Path fullPath) {
@@ -411,81 +971,71 @@ public class FileWatcherService implements Disposable {
         return fullPath.toString();
     }
 
-    private FileWatcherToolWindowContent getToolWindowContent() {
-        ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
-        ToolWindow toolWindow = toolWindowManager.getToolWindow(TOOL_WINDOW_ID);
-
-        if (toolWindow == null) {
-            LOG.warn("Tool window '" + TOOL_WINDOW_ID + "' not found");
-            return null;
-        }
-
-        Content content = toolWindow.getContentManager().getContent(0);
-        if (content == null) {
-            LOG.warn("Tool window content is null");
-            return null;
-        }
-
-        FileWatcherToolWindowContent toolWindowContent = content.getUserData(FileWatcherToolWindowFactory.TOOL_WINDOW_CONTENT_KEY);
-        if (toolWindowContent == null) {
-            LOG.warn("Tool window content not found in user data - tool window may not be initialized yet");
-        }
-
-        return toolWindowContent;
-    }
-
     private void logToToolWindow(String event, String matchedRule, String details, String filePath) {
-        ApplicationManager.getApplication().invokeLater(() -> {
-            try {
-                FileWatcherToolWindowContent content = getToolWindowContent();
-                if (content != null) {
-                    content.addEvent(true, event, matchedRule + (StringUtils.isNotBlank(details) ? ": " + details : ""), filePath);
-                }
-            } catch (Exception e) {
-                LOG.warn("Error logging to tool window", e);
-            }
-        });
+        eventJournal.append(System.currentTimeMillis(), true, event, formatRule(matchedRule, details), filePath);
     }
 
     private void logIgnoredToToolWindow(String event, String matchedRule, String details, String filePath) {
-        ApplicationManager.getApplication().invokeLater(() -> {
-            try {
-                FileWatcherToolWindowContent content = getToolWindowContent();
-                if (content != null) {
-                    content.addEvent(false, event, matchedRule + (StringUtils.isNotBlank(details) ? ": " + details : ""), filePath);
-                }
-            } catch (Exception e) {
-                LOG.warn("Error logging ignored event to tool window", e);
-            }
-        });
+        eventJournal.append(System.currentTimeMillis(), false, event, formatRule(matchedRule, details), filePath);
+    }
+
+    private static String formatRule(String matchedRule, String details) {
+        return FileClassifier.Result.format(matchedRule, details);
     }
 
-    private void scheduleReload() {
+    private void scheduleReload(int changeCount) {
         FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
 
         if (!settings.isAutoReloadEnabled()) {
             LOG.info("Auto-reload is disabled in settings, skipping reload");
+            dirtyPaths.drain();
             return;
         }
 
-        synchronized (this) {
-            if (reloadScheduled) {
-                return; // Already scheduled
-            }
-            reloadScheduled = true;
+        // Debounce: wait until changes stop coming (bounded by the max wait) before triggering reload
+        debouncer.configure(settings.getDebounceDelayMs(), settings.getMaxDebounceWaitMs(),
+                settings.isLeadingEdgeReload(), settings.isAutoTuneDebounce());
+        burstStartNanos.compareAndSet(0, System.nanoTime());
+        debouncer.onEvent(changeCount);
+        metrics.recordDebounce(TimeUnit.NANOSECONDS.toMillis(debouncer.getEffectiveQuietNanos()));
+    }
+
+    private void triggerReloadFromDisk() {
+        long burstStart = burstStartNanos.getAndSet(0);
+        long refreshStart = System.nanoTime();
+        if (burstStart != 0) {
+            metrics.recordDebounceWait(refreshStart - burstStart);
+        }
+        DirtyPathSet.Snapshot changes = dirtyPaths.drain();
+        if (changes.isFull()) {
+            triggerFullSynchronize(burstStart);
+            return;
+        }
+        if (changes.getPaths().isEmpty()) {
+            return;
         }
 
-        int debounceDelay = settings.getDebounceDelayMs();
-        // Debounce: wait configured milliseconds before triggering reload in case more changes come
-        debounceExecutor.schedule(() -> {
-            triggerReloadFromDisk();
-            synchronized (this) {
-                reloadScheduled = false;
-            }
-        }, debounceDelay, TimeUnit.MILLISECONDS);
+        try {
+            // Refresh just what changed, asynchronously and off the EDT; build once the VFS is up to date
+            LOG.info("==> REFRESHING " + changes.getPaths().size() + " changed paths for project: " + project.getName());
+            int refreshed = TargetedRefresher.refresh(changes.getPaths(), () -> {
+                metrics.recordSync(System.nanoTime() - refreshStart);
+                LOG.info("==> REFRESH COMPLETED for project: " + project.getName());
+                triggerRebuild(0, changes.getPaths(), burstStart);
+            });
+            LOG.debug("Refreshing " + refreshed + " VFS entries");
+        } catch (Exception e) {
+            LOG.error("Error refreshing changed files, falling back to full synchronize", e);
+            triggerFullSynchronize(burstStart);
+        }
     }
 
-    private void triggerReloadFromDisk() {
+    /**
+     * @param burstStart start of the burst of changes being reloaded, or 0 if not known
+     */
+    private void triggerFullSynchronize(long burstStart) {
+        // Whatever led here (storm, lost events, too many changes) skipped per-file classification
+        fingerprints.clear();
         ApplicationManager.getApplication().invokeLater(() -> {
             try {
                 ActionManager actionManager = ActionManager.getInstance();
@@ -495,28 +1045,13 @@ public class FileWatcherService implements Disposable {
                 if (syncAction != null) {
                     LOG.warn("==> SYNCHRONIZE ACTION TRIGGERED - Reloading files from disk for project: " + project.getName());
 
+                    long syncStart = System.nanoTime();
                     actionManager.tryToExecute(syncAction, null, null, "Background Action", true);
+                    metrics.recordSync(System.nanoTime() - syncStart);
                     LOG.warn("==> SYNCHRONIZE ACTION COMPLETED for project: " + project.getName());
 
-                    // Then trigger a project rebuild after sync completes if enabled in settings
-                    FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
-                    if (settings.isAutoRebuildEnabled()) {
-                        AnAction rebuildAction = actionManager.getAction(BUILD_ACTION_ID);
-                        if (rebuildAction != null) {
-                            // Schedule rebuild slightly after sync completes
-                            debounceExecutor.schedule(() -> {
-                                ApplicationManager.getApplication().invokeLater(() -> {
-                                    LOG.warn("==> REBUILD ACTION TRIGGERED - Starting project rebuild for: " + project.getName());
-                                    ActionManager.getInstance().tryToExecute(rebuildAction, null, null, "Background Action", true);
-                                    LOG.warn("==> REBUILD ACTION COMPLETED for project: " + project.getName());
-                                });
-                            }, REBUILD_DELAY_MS, TimeUnit.MILLISECONDS);
-                        } else {
-                            LOG.error("Could not find " + BUILD_ACTION_ID + " action for rebuild");
-                        }
-                    } else {
-                        LOG.info("Auto-rebuild is disabled in settings, skipping rebuild");
-                    }
+                    // Then trigger a project rebuild slightly after sync completes
+                    triggerRebuild(REBUILD_DELAY_MS, null, burstStart);
                 } else {
                     LOG.error("Could not find " + SYNC_ACTION_ID + " action");
                 }
@@ -526,9 +1061,80 @@ public class FileWatcherService implements Disposable {
         });
     }
 
+    /**
+     * @param changedPaths the paths that triggered the build, or null when they are not known
+     * @param burstStart   start of the burst of changes being built, or 0 if not known
+     */
+    private void triggerRebuild(int delayMs, @Nullable Set<Path> changedPaths, long burstStart) {
+        // Trigger a project rebuild if enabled in settings
+        FileWatcherSettings settings = FileWatcherSettings.getInstance(project);
+        if (!settings.isAutoRebuildEnabled()) {
+            LOG.info("Auto-rebuild is disabled in settings, skipping rebuild");
+            return;
+        }
+
+        if (settings.isModuleScopedBuild() && changedPaths != null && !changedPaths.isEmpty()) {
+            triggerModuleBuild(changedPaths, burstStart);
+            return;
+        }
+
+        AnAction rebuildAction = ActionManager.getInstance().getAction(BUILD_ACTION_ID);
+        if (rebuildAction == null) {
+            LOG.error("Could not find " + BUILD_ACTION_ID + " action for rebuild");
+            return;
+        }
+        // Measured by the ProjectTaskListener once the build starts and finishes
+        buildBurstStartNanos.set(burstStart);
+
+        debounceExecutor.schedule(() -> {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                LOG.warn("==> REBUILD ACTION TRIGGERED - Starting project rebuild for: " + project.getName());
+                ActionManager.getInstance().tryToExecute(rebuildAction, null, null, "Background Action", true);
+                LOG.warn("==> REBUILD ACTION COMPLETED for project: " + project.getName());
+            });
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void triggerModuleBuild(Set<Path> changedPaths, long burstStart) {
+        ReadAction.nonBlocking(() -> AffectedModules.collect(project, changedPaths))
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.defaultModalityState(), modules -> {
+                    if (modules.isEmpty()) {
+                        // Changes outside of any module: keep the previous behaviour
+                        LOG.info("Changed files do not belong to any module, building the whole project");
+                        triggerRebuild(0, null, burstStart);
+                        return;
+                    }
+                    LOG.warn("==> MODULE BUILD TRIGGERED - Building " + modules.size() + " affected modules for: " + project.getName());
+                    buildBurstStartNanos.set(burstStart);
+                    ProjectTaskManager.getInstance(project).build(modules.toArray(Module.EMPTY_ARRAY))
+                            .onSuccess(result -> LOG.warn("==> MODULE BUILD COMPLETED for project: " + project.getName()
+                                    + (result.hasErrors() ? " (with errors)" : result.isAborted() ? " (aborted)" : "")));
+                })
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
     @Override
     public void dispose() {
         running = false;
+        processor.stop();
+        if (pollTask != null) {
+            pollTask.cancel(false);
+        }
+
+        snapshots.setListener(null);
+        if (snapshotIndex != null) {
+            closeSnapshotIndex(snapshotIndex);
+        }
+
+        // Closing the backend wakes up the watch thread blocked in take(), or disconnects from the shared watcher
+        if (backend != null) {
+            try {
+                backend.close();
+            } catch (IOException e) {
+                LOG.error("Error closing watch backend", e);
+            }
+        }
 
         if (watchThread != null) {
             watchThread.interrupt();
@@ -538,6 +1144,26 @@ public class FileWatcherService implements Disposable {
                 Thread.currentThread().interrupt();
             }
         }
+        // The processor cancelled its pending batch; a running one is given the time to finish
+        classifierExecutor.shutdown();
+        try {
+            if (!classifierExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                classifierExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            classifierExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        eventJournal.close();
+
+        if (stats != null) {
+            try {
+                stats.unregister();
+            } catch (JMException e) {
+                LOG.warn("Could not unregister watcher statistics MBean", e);
+            }
+        }
 
         debounceExecutor.shutdown();
         try {
@@ -549,14 +1175,162 @@ public class FileWatcherService implements Disposable {
             Thread.currentThread().interrupt();
         }
 
-        if (watchService != null) {
-            try {
-                watchService.close();
-            } catch (IOException e) {
-                LOG.error("Error closing watch service", e);
+        LOG.info("File watcher service disposed for project: " + project.getName());
+    }
+
+    /**
+     * Connects the classifier to the IDE: settings, logging, registration and reloading.
+     */
+    private final class ProcessorHost implements ChangeProcessor.Host {
+        @NotNull
+        @Override
+        public FileClassifier createClassifier() {
+            return FileWatcherService.this.createClassifier();
+        }
+
+        @Override
+        public int getStormThreshold() {
+            return FileWatcherSettings.getInstance(project).getStormThreshold();
+        }
+
+        @Override
+        public boolean isSuppressUnchangedContent() {
+            return FileWatcherSettings.getInstance(project).isSuppressUnchangedContent();
+        }
+
+        @Nullable
+        @Override
+        public Path getGitDir() {
+            return gitDir;
+        }
+
+        @Override
+        public boolean isRegistered(@NotNull Path dir) {
+            return FileWatcherService.this.isRegistered(dir);
+        }
+
+        @Override
+        public boolean isGitIgnored(@NotNull FileEvent event) {
+            return FileWatcherService.this.isGitIgnored(event);
+        }
+
+        @Override
+        public boolean isWatched(@NotNull Path dir) {
+            return backend.isWatched(dir);
+        }
+
+        @Override
+        public void changeDetected(@NotNull FileEvent event, @NotNull FileClassifier.Result result) {
+            // Format event type: CREATE/MODIFY/DELETE/RENAME
+            String changeType = event.getKind().name();
+            String relativePath = getDisplayPath(event);
+            LOG.info("Detected " + changeType + " in: " + relativePath + " [" + result.getMatchedRule() + "]");
+            logToToolWindow(changeType, result.getMatchedRule(), result.getDetails(), relativePath);
+            dirtyPaths.add(event.getPath());
+            if (event.getPreviousPath() != null) {
+                dirtyPaths.add(event.getPreviousPath());
             }
         }
 
-        LOG.info("File watcher service disposed for project: " + project.getName());
+        @Override
+        public void changeIgnored(@NotNull FileEvent event, @NotNull FileClassifier.Result result) {
+            // Log ignored event only if there's a valid ignore reason
+            if (result.getDetails() != null && !result.getDetails().isEmpty()) {
+                logIgnoredToToolWindow(event.getKind().name(), result.getMatchedRule() != null ? result.getMatchedRule() : "N/A",
+                        result.getDetails(), getDisplayPath(event));
+            }
+        }
+
+        @Override
+        public void overflowLost(@Nullable Path dir) {
+            LOG.warn("Watcher overflow" + (dir != null ? " in " + dir : "") + ", falling back to full synchronize");
+            dirtyPaths.markOverflow();
+        }
+
+        @Override
+        public void overflowRecovered(@Nullable Path dir, int events, long nanos) {
+            LOG.info("Recovered " + events + " events after watcher overflow" + (dir != null ? " in " + dir : "")
+                    + " in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+        }
+
+        @Override
+        public void gitIgnoreChanged(@NotNull Path dir) {
+            GitIgnoreMatcher matcher = gitIgnore;
+            if (matcher != null) {
+                matcher.reload(dir);
+                reconcileSubtree(dir, ".gitignore changed in " + getRelativePath(dir));
+            }
+        }
+
+        @Override
+        public void directoriesChanged(@NotNull Set<Path> removed, @NotNull List<Path> created) {
+            if (!removed.isEmpty()) {
+                // Before registering new ones: a directory moved within the project is unwatched at its old path first
+                metrics.recordPrunedDirectories(unregisterTrees(removed));
+            }
+            if (!created.isEmpty()) {
+                registerNewDirectories(created);
+            }
+            recordWatchCounts();
+        }
+
+        @Override
+        public void batchProcessed(int relevantChanges, boolean overflow) {
+            if (overflow) {
+                // Never an isolated change: always wait for the burst to settle
+                scheduleReload(Integer.MAX_VALUE);
+            } else if (relevantChanges > 0) {
+                scheduleReload(relevantChanges);
+            }
+        }
+
+        @Override
+        public void stormStarted(boolean headMoved) {
+            LOG.info("Change storm detected" + (headMoved ? " (git HEAD moved)" : "")
+                    + ", suspending per-event processing for project: " + project.getName());
+        }
+
+        @Override
+        public void stormEnded(@NotNull StormDetector.Storm storm) {
+            if (storm.getEvents() == 0) {
+                // Only git metadata changed (git add, commit, ...), the work tree is untouched
+                LOG.debug("Change storm ended without work tree changes");
+                return;
+            }
+            LOG.info("Change storm ended: " + storm.getEvents() + " events in " + storm.getDurationMillis() + " ms for project: " + project.getName());
+
+            // Directories deleted during the storm were never unregistered, and the ones created were not registered
+            // one by one; drop the former and pick up the latter in a single walk
+            Set<Path> vanished = new HashSet<>();
+            for (Path dir : snapshots.getAll().keySet()) {
+                if (!Files.isDirectory(dir)) {
+                    vanished.add(dir);
+                }
+            }
+            if (!vanished.isEmpty()) {
+                metrics.recordPrunedDirectories(unregisterTrees(vanished));
+            }
+            Path root = projectRoot;
+            if (root != null) {
+                GitIgnoreMatcher matcher = gitIgnore;
+                if (matcher != null) {
+                    // A branch switch may have changed any .gitignore
+                    matcher.invalidate();
+                }
+                registerDirectories(root, REGISTRATION_PARALLELISM);
+            }
+            recordWatchCounts();
+            logToToolWindow("STORM", "Change storm", storm.getEvents() + " events in " + storm.getDurationMillis() + " ms, full synchronize", "");
+            dirtyPaths.markOverflow();
+            scheduleReload(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void batchFailed(@NotNull Exception e) {
+            // What the batch held is picked up by a full synchronize
+            LOG.warn("Failed to process file events for project: " + project.getName(), e);
+            dirtyPaths.markOverflow();
+            scheduleReload(Integer.MAX_VALUE);
+        }
     }
 }
@@ -0,0 +1,72 @@
+package com.radut.plugin.bfw;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ThrowableComputable;
+import com.radut.plugin.bfw.watch.WatchBackend;
+import com.radut.plugin.bfw.watch.WatchMultiplexer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Application-level owner of the watchers shared by the open projects: one backend and one event loop thread per
+ * backend configuration, created when the first project with that configuration connects and closed when the last
+ * one disconnects. Projects whose settings ask for another backend get their own shared watcher instead of silently
+ * using the first project's.
+ */
+public final class SharedWatcherService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(SharedWatcherService.class);
+
+    private final Map<String, WatchMultiplexer> multiplexers = new HashMap<>();
+
+    public static SharedWatcherService getInstance() {
+        return ApplicationManager.getApplication().getService(SharedWatcherService.class);
+    }
+
+    /**
+     * Connects a project. The backend factory is only used by the first project with the configuration; later ones
+     * share its backend.
+     *
+     * @param configuration describes the backend the factory builds, e.g. its kind and shard count
+     * @return the project's view of the shared watcher; closing it disconnects the project
+     */
+    @NotNull
+    public synchronized WatchMultiplexer.Connection connect(@NotNull String configuration, @NotNull WatchMultiplexer.Subscriber subscriber,
+                                                            @NotNull ThrowableComputable<WatchBackend, IOException> backendFactory) throws IOException {
+        WatchMultiplexer multiplexer = multiplexers.get(configuration);
+        if (multiplexer == null) {
+            multiplexer = new WatchMultiplexer(backendFactory.compute(), "FileWatcher-Shared-" + configuration,
+                    (failed, e) -> LOG.error("Shared file watcher subscriber failed: " + failed, e));
+            multiplexers.put(configuration, multiplexer);
+            LOG.info("Started shared file watcher (" + configuration + ")");
+        }
+        WatchMultiplexer owner = multiplexer;
+        return owner.connect(subscriber, () -> disconnected(configuration, owner));
+    }
+
+    private synchronized void disconnected(String configuration, WatchMultiplexer owner) {
+        if (multiplexers.get(configuration) == owner && owner.getConnectionCount() == 0) {
+            multiplexers.remove(configuration);
+            close(configuration, owner);
+        }
+    }
+
+    private static void close(String configuration, WatchMultiplexer multiplexer) {
+        try {
+            multiplexer.close();
+            LOG.info("Stopped shared file watcher (" + configuration + ")");
+        } catch (IOException e) {
+            LOG.warn("Error closing shared file watcher (" + configuration + ")", e);
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        multiplexers.forEach(SharedWatcherService::close);
+        multiplexers.clear();
+    }
+}
@@ -0,0 +1,60 @@
+package com.radut.plugin.bfw.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Criteria for selecting events from the {@link EventJournal}; unset criteria match everything.
+ */
+public final class EventFilter {
+    public static final EventFilter ALL = new EventFilter(null, null, "", "", false);
+
+    private final Boolean trigger;
+    private final String eventType;
+    private final String ruleText;
+    private final String pathText;
+    private final boolean pathPrefix;
+
+    /**
+     * @param trigger    only triggering (true) or ignored (false) events, or null for both
+     * @param eventType  exact event type, or null for any
+     * @param ruleText   case-insensitive substring of the matched rule
+     * @param pathText   case-insensitive substring of the path, or its prefix if pathPrefix is set
+     */
+    public EventFilter(@Nullable Boolean trigger, @Nullable String eventType, @NotNull String ruleText,
+                       @NotNull String pathText, boolean pathPrefix) {
+        this.trigger = trigger;
+        this.eventType = eventType;
+        this.ruleText = ruleText;
+        this.pathText = pathText;
+        this.pathPrefix = pathPrefix;
+    }
+
+    @Nullable
+    public Boolean getTrigger() {
+        return trigger;
+    }
+
+    @Nullable
+    public String getEventType() {
+        return eventType;
+    }
+
+    @NotNull
+    public String getRuleText() {
+        return ruleText;
+    }
+
+    @NotNull
+    public String getPathText() {
+        return pathText;
+    }
+
+    public boolean isPathPrefix() {
+        return pathPrefix;
+    }
+
+    public boolean isEmpty() {
+        return trigger == null && eventType == null && ruleText.isEmpty() && pathText.isEmpty();
+    }
+}
@@ -0,0 +1,495 @@
+package com.radut.plugin.bfw.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only event history stored column by column in fixed-size segments, memory-mapped from files
+ * (or on the heap when no directory is given). When the segment limit is reached the oldest segment is dropped.
+ * Rule texts, event types and paths are interned, so an event costs 17 bytes and no heap objects. Rules and paths
+ * are interned per segment and go away with it; their ids are only meaningful within their segment.
+ * <p>
+ * Events are addressed by a global index that keeps growing; valid indexes are
+ * {@link #getFirstIndex()} (inclusive) to {@link #size()} (exclusive). Appending is serialized,
+ * reading is lock-free from any thread.
+ * <p>
+ * Each segment also keeps secondary indexes, updated on append and dropped with the segment:
+ * a bitset per event type and for triggers, the slots of each rule, and its paths by directory name.
+ * They let {@link #select} skip events instead of decoding every one.
+ */
+public final class EventJournal implements Closeable {
+    private static final int TRIGGER = 0x80;
+    private static final int TYPE_MASK = 0x7F;
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final Path dir;
+    private final int segmentCapacity;
+    private final int maxSegments;
+    // Column offsets within a segment
+    private final int flagsOffset;
+    private final int rulesOffset;
+    private final int pathsOffset;
+    private final int segmentSize;
+
+    private final StringTable types = new StringTable(TYPE_MASK + 1);
+
+    // Oldest first; replaced as a whole when a segment is added or dropped
+    private volatile Segment[] segments = new Segment[0];
+    private volatile long size;
+    private volatile Runnable appendListener;
+    private boolean closed;
+
+    private EventJournal(@Nullable Path dir, int segmentCapacity, int maxSegments) {
+        this.dir = dir;
+        this.segmentCapacity = segmentCapacity;
+        this.maxSegments = maxSegments;
+        this.flagsOffset = 8 * segmentCapacity;
+        this.rulesOffset = flagsOffset + segmentCapacity;
+        this.pathsOffset = rulesOffset + 4 * segmentCapacity;
+        this.segmentSize = pathsOffset + 4 * segmentCapacity;
+    }
+
+    /**
+     * Creates a journal backed by files in the directory, removing the segments of a previous session.
+     */
+    @NotNull
+    public static EventJournal open(@NotNull Path dir, int segmentCapacity, int maxSegments) throws IOException {
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+        return new EventJournal(dir, segmentCapacity, maxSegments);
+    }
+
+    /**
+     * Creates a journal kept on the heap.
+     */
+    @NotNull
+    public static EventJournal inMemory(int segmentCapacity, int maxSegments) {
+        return new EventJournal(null, segmentCapacity, maxSegments);
+    }
+
+    /**
+     * @return the index of the new event, or -1 if it could not be stored
+     */
+    public synchronized long append(long timestamp, boolean trigger, @NotNull String eventType, @NotNull String matchedRule, @NotNull String filePath) {
+        if (closed) {
+            return -1;
+        }
+        long index = size;
+        Segment segment = segmentFor(index);
+        if (segment == null) {
+            return -1;
+        }
+        int type = types.intern(eventType);
+        int rule = segment.rules.intern(matchedRule);
+        int knownPaths = segment.paths.size();
+        int path = segment.paths.intern(filePath);
+        if (path == knownPaths) {
+            segment.indexPath(path, filePath);
+        }
+        int slot = (int) (index - segment.firstIndex);
+        ByteBuffer buffer = segment.buffer;
+        buffer.putLong(8 * slot, timestamp);
+        buffer.put(flagsOffset + slot, (byte) ((trigger ? TRIGGER : 0) | (type & TYPE_MASK)));
+        buffer.putInt(rulesOffset + 4 * slot, rule);
+        buffer.putInt(pathsOffset + 4 * slot, path);
+        segment.index(slot, trigger, type & TYPE_MASK, rule);
+        // Publishes the columns and index entries written above
+        size = index + 1;
+        Runnable listener = appendListener;
+        if (listener != null) {
+            listener.run();
+        }
+        return index;
+    }
+
+    /**
+     * Called on the appending thread after every append; keep it cheap.
+     */
+    public void setAppendListener(@Nullable Runnable listener) {
+        appendListener = listener;
+    }
+
+    private Segment segmentFor(long index) {
+        Segment[] current = segments;
+        if (current.length > 0) {
+            Segment last = current[current.length - 1];
+            if (index < last.firstIndex + segmentCapacity) {
+                return last;
+            }
+        }
+        Segment segment;
+        try {
+            segment = createSegment(index);
+        } catch (IOException e) {
+            return null;
+        }
+        Segment[] next;
+        if (current.length < maxSegments) {
+            next = Arrays.copyOf(current, current.length + 1);
+        } else {
+            // Rotate: the oldest events are forgotten
+            next = Arrays.copyOfRange(current, 1, current.length + 1);
+            deleteSegment(current[0]);
+        }
+        next[next.length - 1] = segment;
+        segments = next;
+        return segment;
+    }
+
+    private Segment createSegment(long firstIndex) throws IOException {
+        if (dir == null) {
+            return new Segment(firstIndex, segmentCapacity, ByteBuffer.allocate(segmentSize), null);
+        }
+        Path file = dir.resolve(SEGMENT_PREFIX + (firstIndex / segmentCapacity));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            // The file is sparse until written; the mapping stays valid after the channel is closed
+            raf.setLength(segmentSize);
+            return new Segment(firstIndex, segmentCapacity, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize), file);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        if (segment.file != null) {
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                // Still mapped on some platforms; it is removed on the next start
+            }
+        }
+    }
+
+    /**
+     * Index of the oldest event still stored.
+     */
+    public long getFirstIndex() {
+        Segment[] current = segments;
+        return current.length == 0 ? size : current[0].firstIndex;
+    }
+
+    /**
+     * Index the next event will get, i.e. the number of events ever appended.
+     */
+    public long size() {
+        return size;
+    }
+
+    public long getTimestamp(long index) {
+        Segment segment = find(index);
+        return segment != null ? segment.buffer.getLong(8 * segment.slot(index)) : 0;
+    }
+
+    public boolean isTrigger(long index) {
+        Segment segment = find(index);
+        return segment != null && (segment.buffer.get(flagsOffset + segment.slot(index)) & TRIGGER) != 0;
+    }
+
+    public int getTypeId(long index) {
+        Segment segment = find(index);
+        return segment != null ? segment.buffer.get(flagsOffset + segment.slot(index)) & TYPE_MASK : -1;
+    }
+
+    /**
+     * @return the rule's id within the event's segment, or -1
+     */
+    public int getRuleId(long index) {
+        Segment segment = find(index);
+        return segment != null ? segment.buffer.getInt(rulesOffset + 4 * segment.slot(index)) : -1;
+    }
+
+    /**
+     * @return the path's id within the event's segment, or -1
+     */
+    public int getPathId(long index) {
+        Segment segment = find(index);
+        return segment != null ? segment.buffer.getInt(pathsOffset + 4 * segment.slot(index)) : -1;
+    }
+
+    /**
+     * Decodes one event.
+     *
+     * @return the event, or null if the index is no longer (or not yet) stored
+     */
+    @Nullable
+    public EventRecord get(long index) {
+        Segment segment = find(index);
+        if (segment == null) {
+            return null;
+        }
+        int slot = segment.slot(index);
+        ByteBuffer buffer = segment.buffer;
+        int flags = buffer.get(flagsOffset + slot);
+        String type = types.get(flags & TYPE_MASK);
+        String rule = segment.rules.get(buffer.getInt(rulesOffset + 4 * slot));
+        String path = segment.paths.get(buffer.getInt(pathsOffset + 4 * slot));
+        return new EventRecord(buffer.getLong(8 * slot), (flags & TRIGGER) != 0,
+                type != null ? type : "", rule != null ? rule : "", path != null ? path : "");
+    }
+
+    /**
+     * Finds the stored events in [from, to) accepted by the filter. Safe to call from any thread;
+     * events appended meanwhile are not included.
+     *
+     * @return the matching indexes as offsets from {@code from}, ascending
+     */
+    @NotNull
+    public int[] select(@NotNull EventFilter filter, long from, long to) {
+        long end = Math.min(to, size);
+        Segment[] current = segments;
+        IntList matches = new IntList(1024);
+        if (current.length == 0 || from >= end) {
+            return new int[0];
+        }
+        int typeId = -1;
+        if (filter.getEventType() != null) {
+            typeId = types.find(filter.getEventType());
+            if (typeId < 0) {
+                return new int[0];
+            }
+        }
+        for (Segment segment : current) {
+            long segmentEnd = segment.firstIndex + segmentCapacity;
+            if (segmentEnd <= from || segment.firstIndex >= end) {
+                continue;
+            }
+            int[] ruleIds = null;
+            if (!filter.getRuleText().isEmpty()) {
+                ruleIds = matchingRules(segment, filter.getRuleText());
+                if (ruleIds.length == 0) {
+                    continue;
+                }
+            }
+            BitSet pathIds = null;
+            if (!filter.getPathText().isEmpty()) {
+                pathIds = matchingPaths(segment, filter.getPathText(), filter.isPathPrefix());
+                if (pathIds.isEmpty()) {
+                    continue;
+                }
+            }
+            int fromSlot = (int) (Math.max(from, segment.firstIndex) - segment.firstIndex);
+            int toSlot = (int) (Math.min(end, segmentEnd) - segment.firstIndex);
+            long[] candidates = segment.candidates(fromSlot, toSlot, filter.getTrigger(), typeId, ruleIds);
+            long base = segment.firstIndex - from;
+            for (int word = fromSlot >>> 6; word < candidates.length; word++) {
+                long bits = candidates[word];
+                while (bits != 0) {
+                    int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (pathIds == null || pathIds.get(segment.buffer.getInt(pathsOffset + 4 * slot))) {
+                        matches.add((int) (base + slot));
+                    }
+                }
+            }
+        }
+        int count = matches.size();
+        return Arrays.copyOf(matches.values(), count);
+    }
+
+    private static int[] matchingRules(Segment segment, String text) {
+        String needle = text.toLowerCase(Locale.ROOT);
+        IntList ids = new IntList(16);
+        int count = segment.rules.size();
+        for (int id = 0; id < count; id++) {
+            String rule = segment.rules.get(id);
+            if (rule != null && rule.toLowerCase(Locale.ROOT).contains(needle)) {
+                ids.add(id);
+            }
+        }
+        return Arrays.copyOf(ids.values(), ids.size());
+    }
+
+    private static BitSet matchingPaths(Segment segment, String text, boolean prefix) {
+        String needle = text.replace('\\', '/').toLowerCase(Locale.ROOT);
+        BitSet ids = new BitSet();
+        if (prefix) {
+            // Only paths containing the first name of the prefix can start with it
+            String first = null;
+            for (String name : needle.split("/")) {
+                if (!name.isEmpty()) {
+                    first = name;
+                    break;
+                }
+            }
+            if (first != null && needle.indexOf('/', needle.indexOf(first)) >= 0) {
+                IntList candidates = segment.pathsByName.get(first);
+                if (candidates == null) {
+                    return ids;
+                }
+                int count = candidates.size();
+                int[] values = candidates.values();
+                for (int i = 0; i < count; i++) {
+                    if (pathMatches(segment, values[i], needle, true)) {
+                        ids.set(values[i]);
+                    }
+                }
+                return ids;
+            }
+        }
+        // Distinct paths are far fewer than events
+        int count = segment.paths.size();
+        for (int id = 0; id < count; id++) {
+            if (pathMatches(segment, id, needle, prefix)) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
+    private static boolean pathMatches(Segment segment, int id, String needle, boolean prefix) {
+        String path = segment.paths.get(id);
+        if (path == null) {
+            return false;
+        }
+        String normalized = path.replace('\\', '/').toLowerCase(Locale.ROOT);
+        return prefix ? normalized.startsWith(needle) : normalized.contains(needle);
+    }
+
+    public StringTable getTypes() {
+        return types;
+    }
+
+    private Segment find(long index) {
+        if (index >= size) {
+            return null;
+        }
+        Segment[] current = segments;
+        if (current.length == 0) {
+            return null;
+        }
+        long offset = index - current[0].firstIndex;
+        if (offset < 0) {
+            return null;
+        }
+        int position = (int) (offset / segmentCapacity);
+        return position < current.length ? current[position] : null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Segment[] current = segments;
+        segments = new Segment[0];
+        for (Segment segment : current) {
+            deleteSegment(segment);
+        }
+    }
+
+    private static final class Segment {
+        final long firstIndex;
+        final ByteBuffer buffer;
+        final Path file;
+        // Bitsets over slots; written before size publishes them
+        final long[] triggers;
+        final long[][] typeBits = new long[TYPE_MASK + 1][];
+        // Ascending slots per rule id
+        final Map<Integer, IntList> ruleSlots = new ConcurrentHashMap<>();
+        final StringTable rules = new StringTable(Integer.MAX_VALUE);
+        final StringTable paths = new StringTable(Integer.MAX_VALUE);
+        // Path ids by each of their directory and file names, for prefix lookups
+        final Map<String, IntList> pathsByName = new ConcurrentHashMap<>();
+
+        Segment(long firstIndex, int capacity, ByteBuffer buffer, @Nullable Path file) {
+            this.firstIndex = firstIndex;
+            this.buffer = buffer;
+            this.file = file;
+            this.triggers = new long[(capacity + 63) >>> 6];
+        }
+
+        void indexPath(int id, String filePath) {
+            for (String name : filePath.replace('\\', '/').split("/")) {
+                if (!name.isEmpty()) {
+                    pathsByName.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new IntList(4)).add(id);
+                }
+            }
+        }
+
+        void index(int slot, boolean trigger, int type, int rule) {
+            if (trigger) {
+                triggers[slot >>> 6] |= 1L << slot;
+            }
+            long[] bits = typeBits[type];
+            if (bits == null) {
+                bits = new long[triggers.length];
+                typeBits[type] = bits;
+            }
+            bits[slot >>> 6] |= 1L << slot;
+            ruleSlots.computeIfAbsent(rule, k -> new IntList(64)).add(slot);
+        }
+
+        /**
+         * @return a bitset of the slots in [fromSlot, toSlot) matching trigger, type and any of the rules
+         */
+        long[] candidates(int fromSlot, int toSlot, Boolean trigger, int type, int[] rules) {
+            long[] result = new long[(toSlot + 63) >>> 6];
+            if (rules != null) {
+                for (int rule : rules) {
+                    IntList slots = ruleSlots.get(rule);
+                    if (slots == null) {
+                        continue;
+                    }
+                    int count = slots.size();
+                    int[] values = slots.values();
+                    for (int i = 0; i < count; i++) {
+                        int slot = values[i];
+                        if (slot >= toSlot) {
+                            break;
+                        }
+                        result[slot >>> 6] |= 1L << slot;
+                    }
+                }
+            } else {
+                Arrays.fill(result, -1L);
+            }
+            long[] types = null;
+            if (type >= 0) {
+                types = typeBits[type];
+                if (types == null) {
+                    return new long[0];
+                }
+            }
+            for (int word = 0; word < result.length; word++) {
+                long bits = result[word];
+                if (types != null) {
+                    bits &= types[word];
+                }
+                if (trigger != null) {
+                    bits &= trigger ? triggers[word] : ~triggers[word];
+                }
+                result[word] = bits;
+            }
+            // Trim to the requested range
+            int firstWord = fromSlot >>> 6;
+            for (int word = 0; word < firstWord; word++) {
+                result[word] = 0;
+            }
+            if (result.length > 0) {
+                result[firstWord] &= -1L << fromSlot;
+                if ((toSlot & 63) != 0) {
+                    result[result.length - 1] &= -1L >>> (64 - (toSlot & 63));
+                }
+            }
+            return result;
+        }
+
+        int slot(long index) {
+            return (int) (index - firstIndex);
+        }
+    }
+}
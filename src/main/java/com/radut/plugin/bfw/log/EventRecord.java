@@ -0,0 +1,51 @@
+package com.radut.plugin.bfw.log;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * One row of the event log. Formatting (timestamp, ...) is left to whoever displays it.
+ */
+public final class EventRecord {
+    private final long timestamp;
+    private final boolean trigger;
+    private final String eventType;
+    private final String matchedRule;
+    private final String filePath;
+
+    public EventRecord(long timestamp, boolean trigger, @NotNull String eventType, @NotNull String matchedRule, @NotNull String filePath) {
+        this.timestamp = timestamp;
+        this.trigger = trigger;
+        this.eventType = eventType;
+        this.matchedRule = matchedRule;
+        this.filePath = filePath;
+    }
+
+    /**
+     * Milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Whether the event triggered a reload, as opposed to being ignored.
+     */
+    public boolean isTrigger() {
+        return trigger;
+    }
+
+    @NotNull
+    public String getEventType() {
+        return eventType;
+    }
+
+    @NotNull
+    public String getMatchedRule() {
+        return matchedRule;
+    }
+
+    @NotNull
+    public String getFilePath() {
+        return filePath;
+    }
+}
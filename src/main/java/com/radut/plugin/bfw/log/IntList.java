@@ -0,0 +1,37 @@
+package com.radut.plugin.bfw.log;
+
+import java.util.Arrays;
+
+/**
+ * Growable int array with a single writer and lock-free readers: an element is visible once size covers it.
+ */
+final class IntList {
+    private volatile int[] values;
+    private volatile int size;
+
+    IntList(int initialCapacity) {
+        values = new int[Math.max(1, initialCapacity)];
+    }
+
+    void add(int value) {
+        int[] current = values;
+        int next = size;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            values = current;
+        }
+        current[next] = value;
+        size = next + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the array holding at least the first size() elements; read size() first
+     */
+    int[] values() {
+        return values;
+    }
+}
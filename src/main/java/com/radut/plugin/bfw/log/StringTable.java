@@ -0,0 +1,72 @@
+package com.radut.plugin.bfw.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns strings to dense int ids. Lookups by string or id are lock-free; adding a new string takes a lock.
+ */
+public final class StringTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final int maxSize;
+    // Grown copy-on-write; only the first size entries are published
+    private volatile String[] strings = new String[64];
+    private volatile int size;
+
+    public StringTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the id of the string, or -1 if the table is full and the string is new
+     */
+    public int intern(@NotNull String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            if (next >= maxSize) {
+                return -1;
+            }
+            String[] current = strings;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[next] = value;
+            strings = current;
+            size = next + 1;
+            ids.put(value, next);
+            return next;
+        }
+    }
+
+    /**
+     * @return the id of an already interned string, or -1
+     */
+    public int find(@NotNull String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : -1;
+    }
+
+    @Nullable
+    public String get(int id) {
+        // Size first: the array published before it is at least as new
+        int count = size;
+        String[] current = strings;
+        return id >= 0 && id < count ? current[id] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,540 @@
+package com.radut.plugin.bfw.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low-overhead counters describing the watcher pipeline. Written by the watch thread, read by the UI.
+ */
+public class WatcherMetrics {
+    private final LongAdder rawEvents = new LongAdder();
+    // Raw events per wall-clock second: the second being counted and the last complete one
+    private volatile long rateSecond;
+    private volatile long rateCount;
+    private volatile long lastSecondEvents;
+    // Dropped before classification because git ignores them
+    private final LongAdder gitIgnoredEvents = new LongAdder();
+    private final LongAdder coalescedInputEvents = new LongAdder();
+    private final LongAdder coalescedOutputEvents = new LongAdder();
+    private volatile long droppedEvents;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedEvents = new LongAdder();
+    private final AtomicLong lastBatchEvents = new AtomicLong();
+    private final AtomicLong maxBatchEvents = new AtomicLong();
+
+    private final LongAdder readActions = new LongAdder();
+    private final LongAdder readLockWaitNanos = new LongAdder();
+    private final AtomicLong lastReadLockWaitNanos = new AtomicLong();
+    private final AtomicLong maxReadLockWaitNanos = new AtomicLong();
+
+    private final LongAdder classifiedEvents = new LongAdder();
+    private final LongAdder triggeredEvents = new LongAdder();
+    private final Map<String, LongAdder> ruleHits = new ConcurrentHashMap<>();
+    private final LatencyHistogram classificationNanos = new LatencyHistogram();
+
+    private volatile long debounceMillis = -1;
+    private final LatencyHistogram debounceWaitNanos = new LatencyHistogram();
+    private final LatencyHistogram syncNanos = new LatencyHistogram();
+    private final LatencyHistogram buildNanos = new LatencyHistogram();
+    private final LatencyHistogram endToEndNanos = new LatencyHistogram();
+    private volatile int watchedDirectories;
+
+    // Per watcher shard: events drained, events waiting for the pipeline (now and at most), watched directories
+    private volatile AtomicLongArray shardEvents = new AtomicLongArray(0);
+    private volatile AtomicLongArray shardQueued = new AtomicLongArray(0);
+    private volatile AtomicLongArray shardMaxQueued = new AtomicLongArray(0);
+    private volatile AtomicLongArray shardWatches = new AtomicLongArray(0);
+
+    private final LongAdder fingerprintLookups = new LongAdder();
+    private final LongAdder unchangedContent = new LongAdder();
+
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder recoveredEvents = new LongAdder();
+
+    private final LongAdder storms = new LongAdder();
+    private volatile long lastStormEvents;
+    private volatile long lastStormMillis;
+
+    // inotify budget: the user's limit and watches in use when the project opened (-1 if unlimited), and this project's limit
+    private volatile long maxUserWatches = -1;
+    private volatile long usedUserWatches;
+    private volatile long watchLimit = -1;
+    // Directories over the budget, polled instead, and the topmost of them with their polled directory counts
+    private volatile int polledDirectories;
+    private volatile Map<String, Integer> unwatchedSubtrees = Map.of();
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder polledChanges = new LongAdder();
+
+    // Watch set reconciliations (root or settings changes) and directories unwatched because they were deleted
+    private final LongAdder reconciles = new LongAdder();
+    private volatile int lastReconcileAdded;
+    private volatile int lastReconcileRemoved;
+    private volatile long lastReconcileMillis = -1;
+    private final LongAdder prunedDirectories = new LongAdder();
+
+    private volatile long offlineChanges = -1;
+    private volatile long offlineScanMillis;
+
+    private volatile long startupMillis = -1;
+    private volatile int startupDirectories;
+
+    /**
+     * Called by the watch thread only.
+     */
+    public void recordRawEvents(int events) {
+        rawEvents.add(events);
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        if (second != rateSecond) {
+            lastSecondEvents = second == rateSecond + 1 ? rateCount : 0;
+            rateCount = 0;
+            rateSecond = second;
+        }
+        rateCount += events;
+    }
+
+    /**
+     * Classification of one event: the rule (or ignore reason) it matched and how long deciding took.
+     */
+    public void recordClassification(boolean trigger, String rule, long nanos) {
+        classifiedEvents.increment();
+        if (trigger) {
+            triggeredEvents.increment();
+        }
+        ruleHits.computeIfAbsent(rule, k -> new LongAdder()).increment();
+        classificationNanos.record(nanos);
+    }
+
+    public void recordCoalesced(int input, int output, long droppedTotal) {
+        coalescedInputEvents.add(input);
+        coalescedOutputEvents.add(output);
+        droppedEvents = droppedTotal;
+    }
+
+    public void recordBatch(int events) {
+        batches.increment();
+        batchedEvents.add(events);
+        lastBatchEvents.set(events);
+        maxBatchEvents.accumulateAndGet(events, Math::max);
+    }
+
+    public void recordReadLockWait(long nanos) {
+        readActions.increment();
+        readLockWaitNanos.add(nanos);
+        lastReadLockWaitNanos.set(nanos);
+        maxReadLockWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void recordDebounce(long quietMillis) {
+        debounceMillis = quietMillis;
+    }
+
+    /**
+     * Time from the first change of a burst until the reload it caused started.
+     */
+    public void recordDebounceWait(long nanos) {
+        debounceWaitNanos.record(nanos);
+    }
+
+    public void recordSync(long nanos) {
+        syncNanos.record(nanos);
+    }
+
+    /**
+     * A build started by the watcher finished.
+     *
+     * @param endToEndNanos time since the first change that led to it, or a negative value if not known
+     */
+    public void recordBuild(long nanos, long endToEndNanos) {
+        buildNanos.record(nanos);
+        if (endToEndNanos >= 0) {
+            this.endToEndNanos.record(endToEndNanos);
+        }
+    }
+
+    public void recordWatchedDirectories(int directories) {
+        watchedDirectories = directories;
+    }
+
+    /**
+     * Sets up the per-shard counters; called once before the shards start.
+     */
+    public void initShards(int count) {
+        shardWatches = new AtomicLongArray(count);
+        shardMaxQueued = new AtomicLongArray(count);
+        shardQueued = new AtomicLongArray(count);
+        shardEvents = new AtomicLongArray(count);
+    }
+
+    public void recordShardQueued(int shard, int events, long queuedEvents) {
+        shardEvents.addAndGet(shard, events);
+        shardQueued.set(shard, queuedEvents);
+        shardMaxQueued.accumulateAndGet(shard, queuedEvents, Math::max);
+    }
+
+    public void recordShardConsumed(int shard, long queuedEvents) {
+        shardQueued.set(shard, queuedEvents);
+    }
+
+    public void recordShardWatches(int shard, int watches) {
+        shardWatches.set(shard, watches);
+    }
+
+    public void recordFingerprintLookup(boolean unchanged) {
+        fingerprintLookups.increment();
+        if (unchanged) {
+            unchangedContent.increment();
+        }
+    }
+
+    public void recordOverflow() {
+        overflows.increment();
+    }
+
+    public void recordRecoveredEvents(int events) {
+        recoveredEvents.add(events);
+    }
+
+    public void recordStorm(long events, long durationMillis) {
+        lastStormEvents = events;
+        lastStormMillis = durationMillis;
+        storms.increment();
+    }
+
+    public void recordGitIgnoredEvents(int events) {
+        gitIgnoredEvents.add(events);
+    }
+
+    public long getGitIgnoredEvents() {
+        return gitIgnoredEvents.sum();
+    }
+
+    public void recordWatchBudget(long maxUserWatches, long usedUserWatches, long watchLimit) {
+        this.maxUserWatches = maxUserWatches;
+        this.usedUserWatches = usedUserWatches;
+        this.watchLimit = watchLimit;
+    }
+
+    public void recordPolledDirectories(int directories, Map<String, Integer> subtrees) {
+        polledDirectories = directories;
+        unwatchedSubtrees = Map.copyOf(subtrees);
+    }
+
+    public void recordPoll(int changes) {
+        polls.increment();
+        polledChanges.add(changes);
+    }
+
+    /**
+     * fs.inotify.max_user_watches, or -1 if there is no known limit.
+     */
+    public long getMaxUserWatches() {
+        return maxUserWatches;
+    }
+
+    /**
+     * Watches of the user's processes when the project was opened.
+     */
+    public long getUsedUserWatches() {
+        return usedUserWatches;
+    }
+
+    /**
+     * Watches this project may use, or -1 if unlimited.
+     */
+    public long getWatchLimit() {
+        return watchLimit;
+    }
+
+    public int getPolledDirectories() {
+        return polledDirectories;
+    }
+
+    /**
+     * Topmost polled directories with the number of polled directories in each, sorted by path.
+     */
+    public Map<String, Integer> getUnwatchedSubtrees() {
+        return new TreeMap<>(unwatchedSubtrees);
+    }
+
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    public long getPolledChanges() {
+        return polledChanges.sum();
+    }
+
+    public void recordReconcile(int added, int removed, long millis) {
+        lastReconcileAdded = added;
+        lastReconcileRemoved = removed;
+        lastReconcileMillis = millis;
+        reconciles.increment();
+    }
+
+    public void recordPrunedDirectories(int directories) {
+        prunedDirectories.add(directories);
+    }
+
+    public long getReconciles() {
+        return reconciles.sum();
+    }
+
+    public int getLastReconcileAdded() {
+        return lastReconcileAdded;
+    }
+
+    public int getLastReconcileRemoved() {
+        return lastReconcileRemoved;
+    }
+
+    /**
+     * Duration of the last reconciliation, or -1 if there was none.
+     */
+    public long getLastReconcileMillis() {
+        return lastReconcileMillis;
+    }
+
+    public long getPrunedDirectories() {
+        return prunedDirectories.sum();
+    }
+
+    public void recordOfflineChanges(long changes, long millis) {
+        offlineScanMillis = millis;
+        offlineChanges = changes;
+    }
+
+    public void recordStartup(long millis, int directories) {
+        startupDirectories = directories;
+        startupMillis = millis;
+    }
+
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    public int getStartupDirectories() {
+        return startupDirectories;
+    }
+
+    /**
+     * Changes found at startup that were made while the project was closed, or -1 if not checked.
+     */
+    public long getOfflineChanges() {
+        return offlineChanges;
+    }
+
+    public long getOfflineScanMillis() {
+        return offlineScanMillis;
+    }
+
+    public long getRawEvents() {
+        return rawEvents.sum();
+    }
+
+    /**
+     * Raw events received in the last complete second.
+     */
+    public long getRawEventsPerSecond() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long counted = rateSecond;
+        if (second == counted) {
+            return lastSecondEvents;
+        }
+        return second == counted + 1 ? rateCount : 0;
+    }
+
+    public long getClassifiedEvents() {
+        return classifiedEvents.sum();
+    }
+
+    public long getTriggeredEvents() {
+        return triggeredEvents.sum();
+    }
+
+    public long getIgnoredEvents() {
+        return classifiedEvents.sum() - triggeredEvents.sum();
+    }
+
+    /**
+     * Classified events per matched rule or ignore reason, sorted by name.
+     */
+    public Map<String, Long> getRuleHits() {
+        Map<String, Long> hits = new TreeMap<>();
+        ruleHits.forEach((rule, count) -> hits.put(rule, count.sum()));
+        return hits;
+    }
+
+    public LatencyHistogram getClassificationNanos() {
+        return classificationNanos;
+    }
+
+    public LatencyHistogram getDebounceWaitNanos() {
+        return debounceWaitNanos;
+    }
+
+    /**
+     * VFS refresh (or full synchronize) durations.
+     */
+    public LatencyHistogram getSyncNanos() {
+        return syncNanos;
+    }
+
+    public LatencyHistogram getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * Time from the first change of a burst until the build it triggered finished.
+     */
+    public LatencyHistogram getEndToEndNanos() {
+        return endToEndNanos;
+    }
+
+    public int getWatchedDirectories() {
+        return watchedDirectories;
+    }
+
+    /**
+     * Number of watcher shards, or 0 when a single watcher is used.
+     */
+    public int getShardCount() {
+        return shardEvents.length();
+    }
+
+    public long getShardEvents(int shard) {
+        return shardEvents.get(shard);
+    }
+
+    /**
+     * Events drained from the shard's watcher and not yet taken by the pipeline.
+     */
+    public long getShardQueuedEvents(int shard) {
+        return shardQueued.get(shard);
+    }
+
+    public long getShardMaxQueuedEvents(int shard) {
+        return shardMaxQueued.get(shard);
+    }
+
+    public long getShardWatches(int shard) {
+        return shardWatches.get(shard);
+    }
+
+    /**
+     * Events removed by per-path coalescing.
+     */
+    public long getCoalescedEvents() {
+        return coalescedInputEvents.sum() - coalescedOutputEvents.sum();
+    }
+
+    /**
+     * Events dropped because the hand-off queue was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBatchedEvents() {
+        return batchedEvents.sum();
+    }
+
+    public long getLastBatchEvents() {
+        return lastBatchEvents.get();
+    }
+
+    public long getMaxBatchEvents() {
+        return maxBatchEvents.get();
+    }
+
+    /**
+     * Quiet period used for the last scheduled reload; differs from the setting when auto-tuning is on.
+     */
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public long getFingerprintLookups() {
+        return fingerprintLookups.sum();
+    }
+
+    /**
+     * Modifications dropped because the content hash did not change.
+     */
+    public long getUnchangedContent() {
+        return unchangedContent.sum();
+    }
+
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    /**
+     * Events reconstructed from directory snapshots after overflows.
+     */
+    public long getRecoveredEvents() {
+        return recoveredEvents.sum();
+    }
+
+    public long getStorms() {
+        return storms.sum();
+    }
+
+    public long getLastStormEvents() {
+        return lastStormEvents;
+    }
+
+    public long getLastStormMillis() {
+        return lastStormMillis;
+    }
+
+    public long getReadActions() {
+        return readActions.sum();
+    }
+
+    public long getReadLockWaitNanos() {
+        return readLockWaitNanos.sum();
+    }
+
+    public long getLastReadLockWaitNanos() {
+        return lastReadLockWaitNanos.get();
+    }
+
+    public long getMaxReadLockWaitNanos() {
+        return maxReadLockWaitNanos.get();
+    }
+
+    public String summary() {
+        long batchCount = getBatches();
+        long avgBatch = batchCount == 0 ? 0 : getBatchedEvents() / batchCount;
+        String startup = startupMillis < 0 ? "pending" : startupMillis + " ms (" + startupDirectories + " dirs)";
+        return "Startup: " + startup
+                + (offlineChanges < 0 ? "" : " | Offline changes: " + offlineChanges + " (" + offlineScanMillis + " ms)")
+                + " | Events (raw/coalesced/dropped): " + getRawEvents() + "/" + getCoalescedEvents() + "/" + getDroppedEvents()
+                + (getGitIgnoredEvents() == 0 ? "" : " | Git-ignored: " + getGitIgnoredEvents())
+                + " | Batches: " + batchCount
+                + " | Batch size (last/avg/max): " + getLastBatchEvents() + "/" + avgBatch + "/" + getMaxBatchEvents()
+                + " | Read lock wait (last/max): " + toMillis(getLastReadLockWaitNanos()) + "/" + toMillis(getMaxReadLockWaitNanos()) + " ms"
+                + (getFingerprintLookups() == 0 ? "" : " | Unchanged content: " + getUnchangedContent() + "/" + getFingerprintLookups()
+                        + " (" + (100 * getUnchangedContent() / getFingerprintLookups()) + "%)")
+                + (getOverflows() == 0 ? "" : " | Overflows: " + getOverflows() + " (" + getRecoveredEvents() + " events recovered)")
+                + (polledDirectories == 0 ? "" : " | Watch limit reached: " + polledDirectories + " dirs polled")
+                + (lastReconcileMillis < 0 ? "" : " | Watch set reconciled: +" + lastReconcileAdded + "/-" + lastReconcileRemoved
+                        + " dirs (" + lastReconcileMillis + " ms), " + watchedDirectories + " watched")
+                + (debounceMillis < 0 ? "" : " | Debounce: " + debounceMillis + " ms")
+                + (getStorms() == 0 ? "" : " | Storms: " + getStorms() + " (last " + lastStormEvents + " events in " + lastStormMillis + " ms)");
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
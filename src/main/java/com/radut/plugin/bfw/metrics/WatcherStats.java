@@ -0,0 +1,194 @@
+package com.radut.plugin.bfw.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports {@link WatcherMetrics} to the platform MBean server, one bean per project.
+ */
+public final class WatcherStats implements WatcherStatsMXBean {
+    private static final String DOMAIN = "com.radut.plugin.bfw";
+
+    private final WatcherMetrics metrics;
+    private final ObjectName name;
+
+    private WatcherStats(WatcherMetrics metrics, ObjectName name) {
+        this.metrics = metrics;
+        this.name = name;
+    }
+
+    /**
+     * Registers the bean as {@code com.radut.plugin.bfw:type=FileWatcher,project=<name>,id=<locationHash>}.
+     */
+    @NotNull
+    public static WatcherStats register(@NotNull WatcherMetrics metrics, @NotNull String projectName, @NotNull String locationHash)
+            throws JMException {
+        ObjectName name = new ObjectName(DOMAIN + ":type=FileWatcher,project=" + ObjectName.quote(projectName)
+                + ",id=" + ObjectName.quote(locationHash));
+        WatcherStats stats = new WatcherStats(metrics, name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            // Left behind by a project that was not disposed cleanly
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(stats, name);
+        return stats;
+    }
+
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Override
+    public long getRawEvents() {
+        return metrics.getRawEvents();
+    }
+
+    @Override
+    public long getRawEventsPerSecond() {
+        return metrics.getRawEventsPerSecond();
+    }
+
+    @Override
+    public long getCoalescedEvents() {
+        return metrics.getCoalescedEvents();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return metrics.getDroppedEvents();
+    }
+
+    @Override
+    public long getClassifiedEvents() {
+        return metrics.getClassifiedEvents();
+    }
+
+    @Override
+    public long getTriggeredEvents() {
+        return metrics.getTriggeredEvents();
+    }
+
+    @Override
+    public long getIgnoredEvents() {
+        return metrics.getIgnoredEvents();
+    }
+
+    @Override
+    public Map<String, Long> getRuleHits() {
+        return metrics.getRuleHits();
+    }
+
+    @Override
+    public long getClassificationP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(metrics.getClassificationNanos().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getClassificationP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(metrics.getClassificationNanos().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getClassificationMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(metrics.getClassificationNanos().getMax());
+    }
+
+    @Override
+    public long getDebounceWaitP50Millis() {
+        return toMillis(metrics.getDebounceWaitNanos().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getDebounceWaitP99Millis() {
+        return toMillis(metrics.getDebounceWaitNanos().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getSyncCount() {
+        return metrics.getSyncNanos().getCount();
+    }
+
+    @Override
+    public long getSyncP50Millis() {
+        return toMillis(metrics.getSyncNanos().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getSyncMaxMillis() {
+        return toMillis(metrics.getSyncNanos().getMax());
+    }
+
+    @Override
+    public long getBuildCount() {
+        return metrics.getBuildNanos().getCount();
+    }
+
+    @Override
+    public long getBuildP50Millis() {
+        return toMillis(metrics.getBuildNanos().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getBuildMaxMillis() {
+        return toMillis(metrics.getBuildNanos().getMax());
+    }
+
+    @Override
+    public long getEndToEndP50Millis() {
+        return toMillis(metrics.getEndToEndNanos().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getEndToEndP99Millis() {
+        return toMillis(metrics.getEndToEndNanos().getValueAtPercentile(99));
+    }
+
+    @Override
+    public int getWatchedDirectories() {
+        return metrics.getWatchedDirectories();
+    }
+
+    @Override
+    public long getWatchLimit() {
+        return metrics.getWatchLimit();
+    }
+
+    @Override
+    public int getPolledDirectories() {
+        return metrics.getPolledDirectories();
+    }
+
+    @Override
+    public long getReconciles() {
+        return metrics.getReconciles();
+    }
+
+    @Override
+    public long getLastReconcileMillis() {
+        return metrics.getLastReconcileMillis();
+    }
+
+    @Override
+    public long getOverflows() {
+        return metrics.getOverflows();
+    }
+
+    @Override
+    public long getStorms() {
+        return metrics.getStorms();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,65 @@
+package com.radut.plugin.bfw.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a project's {@link WatcherMetrics}. Durations are in milliseconds except classification,
+ * which is in microseconds.
+ */
+public interface WatcherStatsMXBean {
+    long getRawEvents();
+
+    long getRawEventsPerSecond();
+
+    long getCoalescedEvents();
+
+    long getDroppedEvents();
+
+    long getClassifiedEvents();
+
+    long getTriggeredEvents();
+
+    long getIgnoredEvents();
+
+    Map<String, Long> getRuleHits();
+
+    long getClassificationP50Micros();
+
+    long getClassificationP99Micros();
+
+    long getClassificationMaxMicros();
+
+    long getDebounceWaitP50Millis();
+
+    long getDebounceWaitP99Millis();
+
+    long getSyncCount();
+
+    long getSyncP50Millis();
+
+    long getSyncMaxMillis();
+
+    long getBuildCount();
+
+    long getBuildP50Millis();
+
+    long getBuildMaxMillis();
+
+    long getEndToEndP50Millis();
+
+    long getEndToEndP99Millis();
+
+    int getWatchedDirectories();
+
+    long getReconciles();
+
+    long getWatchLimit();
+
+    int getPolledDirectories();
+
+    long getLastReconcileMillis();
+
+    long getOverflows();
+
+    long getStorms();
+}
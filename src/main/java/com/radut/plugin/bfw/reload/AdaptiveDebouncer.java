@@ -0,0 +1,132 @@
+package com.radut.plugin.bfw.reload;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free debouncer for reload triggers.
+ * <ul>
+ *     <li>Trailing edge: fires once no event arrived for the quiet period, but never later than the max wait
+ *     after the first event of a burst.</li>
+ *     <li>Leading edge (optional): an isolated single change fires immediately.</li>
+ *     <li>Auto-tuning (optional): the quiet period follows the observed gaps between events of a burst,
+ *     capped by the configured quiet period.</li>
+ * </ul>
+ */
+public final class AdaptiveDebouncer {
+    private static final long MIN_QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Quiet period as a multiple of the average gap inside a burst
+    private static final int GAP_MULTIPLIER = 4;
+    // Weight of a new sample in the moving average, as a shift (1/8)
+    private static final int EWMA_SHIFT = 3;
+
+    private final ScheduledExecutorService executor;
+    private final Runnable action;
+
+    private volatile long quietNanos = TimeUnit.MILLISECONDS.toNanos(500);
+    private volatile long maxWaitNanos = TimeUnit.SECONDS.toNanos(5);
+    private volatile boolean leadingEdge;
+    private volatile boolean autoTune;
+
+    // 0 while idle, otherwise the time of the first event of the current burst
+    private final AtomicLong burstStart = new AtomicLong();
+    private final AtomicLong lastEvent = new AtomicLong();
+    private final AtomicBoolean armed = new AtomicBoolean();
+    private final AtomicLong averageGapNanos = new AtomicLong();
+    private final AtomicLong fires = new AtomicLong();
+    private final AtomicLong leadingFires = new AtomicLong();
+
+    public AdaptiveDebouncer(@NotNull ScheduledExecutorService executor, @NotNull Runnable action) {
+        this.executor = executor;
+        this.action = action;
+    }
+
+    public void configure(long quietMs, long maxWaitMs, boolean leadingEdge, boolean autoTune) {
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietMs));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(quietMs, maxWaitMs));
+        this.leadingEdge = leadingEdge;
+        this.autoTune = autoTune;
+    }
+
+    /**
+     * Records relevant changes and makes sure the action runs once they settle.
+     *
+     * @param changeCount number of relevant changes reported together
+     */
+    public void onEvent(int changeCount) {
+        long now = System.nanoTime();
+        long previous = lastEvent.getAndSet(now);
+        long gap = previous == 0 ? Long.MAX_VALUE : now - previous;
+        if (gap < maxWaitNanos) {
+            long average = averageGapNanos.get();
+            averageGapNanos.set(average == 0 ? gap : average + ((gap - average) >> EWMA_SHIFT));
+        }
+
+        if (leadingEdge && changeCount == 1 && gap >= quietNanos && burstStart.get() == 0 && !armed.get()) {
+            // Isolated single change: nothing to wait for
+            leadingFires.incrementAndGet();
+            executor.execute(this::fire);
+            return;
+        }
+
+        burstStart.compareAndSet(0, now);
+        if (armed.compareAndSet(false, true)) {
+            executor.schedule(this::check, getEffectiveQuietNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        long last = lastEvent.get();
+        long start = burstStart.get();
+        long quiet = getEffectiveQuietNanos();
+        long sinceLast = now - last;
+        long sinceStart = start == 0 ? 0 : now - start;
+
+        if (sinceLast < quiet && sinceStart < maxWaitNanos) {
+            // Still busy: wait for the rest of the quiet period, or until the max wait is reached
+            long delay = Math.min(quiet - sinceLast, maxWaitNanos - sinceStart);
+            executor.schedule(this::check, delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        burstStart.set(0);
+        armed.set(false);
+        // An event that raced with the reset above did not arm a timer; do it for it
+        if (lastEvent.get() != last && armed.compareAndSet(false, true)) {
+            burstStart.compareAndSet(0, now);
+            executor.schedule(this::check, quiet, TimeUnit.NANOSECONDS);
+        }
+        fire();
+    }
+
+    private void fire() {
+        fires.incrementAndGet();
+        action.run();
+    }
+
+    public long getEffectiveQuietNanos() {
+        long configured = quietNanos;
+        if (!autoTune) {
+            return configured;
+        }
+        long average = averageGapNanos.get();
+        if (average == 0) {
+            return configured;
+        }
+        long tuned = average * GAP_MULTIPLIER;
+        return Math.max(Math.min(MIN_QUIET_NANOS, configured), Math.min(tuned, configured));
+    }
+
+    public long getFireCount() {
+        return fires.get();
+    }
+
+    public long getLeadingFireCount() {
+        return leadingFires.get();
+    }
+}
@@ -0,0 +1,65 @@
+package com.radut.plugin.bfw.reload;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Maps changed paths to the modules that own them, plus every module depending on those (transitively).
+ */
+public final class AffectedModules {
+
+    private AffectedModules() {
+    }
+
+    /**
+     * Must be called inside a read action.
+     *
+     * @return the owning modules and their dependents; empty if no path belongs to a module
+     */
+    @NotNull
+    public static Set<Module> collect(@NotNull Project project, @NotNull Collection<Path> paths) {
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        LocalFileSystem fileSystem = LocalFileSystem.getInstance();
+
+        Set<Module> owners = new LinkedHashSet<>();
+        for (Path path : paths) {
+            // Deleted and not yet loaded files are not in the VFS; their nearest known ancestor has the same owner.
+            // Cached lookups only: loading from disk inside the read action would block writers
+            for (Path candidate = path; candidate != null; candidate = candidate.getParent()) {
+                VirtualFile file = fileSystem.findFileByPathIfCached(FileUtil.toSystemIndependentName(candidate.toString()));
+                if (file != null) {
+                    Module module = fileIndex.getModuleForFile(file);
+                    if (module != null) {
+                        owners.add(module);
+                    }
+                    break;
+                }
+            }
+        }
+
+        ModuleManager moduleManager = ModuleManager.getInstance(project);
+        Set<Module> affected = new LinkedHashSet<>(owners);
+        Deque<Module> pending = new ArrayDeque<>(owners);
+        while (!pending.isEmpty()) {
+            for (Module dependent : moduleManager.getModuleDependentModules(pending.poll())) {
+                if (affected.add(dependent)) {
+                    pending.add(dependent);
+                }
+            }
+        }
+        return affected;
+    }
+}
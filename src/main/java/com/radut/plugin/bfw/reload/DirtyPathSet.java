@@ -0,0 +1,88 @@
+package com.radut.plugin.bfw.reload;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Paths changed since the last reload. Once too many paths pile up, or events were lost,
+ * the set degrades to "everything is dirty" and the next reload falls back to a full sync.
+ */
+public final class DirtyPathSet {
+    private final ConcurrentLinkedQueue<Path> paths = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final int capacity;
+
+    public DirtyPathSet(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void add(@NotNull Path path) {
+        if (overflowed.get()) {
+            return;
+        }
+        if (size.incrementAndGet() > capacity) {
+            overflowed.set(true);
+            return;
+        }
+        paths.add(path);
+    }
+
+    /**
+     * Marks the whole project dirty, e.g. after the watcher lost events.
+     */
+    public void markOverflow() {
+        overflowed.set(true);
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0 && !overflowed.get();
+    }
+
+    /**
+     * Takes everything collected so far and resets the set.
+     */
+    @NotNull
+    public Snapshot drain() {
+        boolean full = overflowed.getAndSet(false);
+        Set<Path> drained = new LinkedHashSet<>();
+        Path path;
+        while ((path = paths.poll()) != null) {
+            drained.add(path);
+        }
+        size.set(0);
+        return new Snapshot(full ? Collections.emptySet() : drained, full);
+    }
+
+    public static final class Snapshot {
+        private final Set<Path> paths;
+        private final boolean full;
+
+        private Snapshot(Set<Path> paths, boolean full) {
+            this.paths = paths;
+            this.full = full;
+        }
+
+        /**
+         * The changed paths; empty when {@link #isFull()}.
+         */
+        @NotNull
+        public Set<Path> getPaths() {
+            return paths;
+        }
+
+        /**
+         * True when the changes are not known precisely and the whole project has to be synchronized.
+         */
+        public boolean isFull() {
+            return full;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.radut.plugin.bfw.reload;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Refreshes only the VFS entries affected by a set of changed paths instead of the whole project.
+ */
+public final class TargetedRefresher {
+
+    private TargetedRefresher() {
+    }
+
+    /**
+     * Asynchronously refreshes the changed files and their parent directories. The parents pick up
+     * created and deleted children, recursively so that new directories are loaded with their content.
+     *
+     * @param onFinish called once the refresh is done (on the EDT)
+     * @return the number of VFS entries refreshed
+     */
+    public static int refresh(@NotNull Collection<Path> paths, @Nullable Runnable onFinish) {
+        LocalFileSystem fileSystem = LocalFileSystem.getInstance();
+        Set<VirtualFile> targets = new LinkedHashSet<>();
+        for (Path path : paths) {
+            // Only cached lookups here; the refresh itself discovers what is new on disk
+            VirtualFile file = findCached(fileSystem, path);
+            if (file != null) {
+                targets.add(file);
+            }
+            VirtualFile parent = findCachedAncestor(fileSystem, path.getParent());
+            if (parent != null) {
+                targets.add(parent);
+            }
+        }
+
+        if (targets.isEmpty()) {
+            if (onFinish != null) {
+                onFinish.run();
+            }
+            return 0;
+        }
+
+        VirtualFile[] files = targets.toArray(VirtualFile.EMPTY_ARRAY);
+        VfsUtil.markDirty(false, false, files);
+        RefreshQueue.getInstance().refresh(true, true, onFinish, files);
+        return files.length;
+    }
+
+    @Nullable
+    private static VirtualFile findCachedAncestor(LocalFileSystem fileSystem, @Nullable Path path) {
+        while (path != null) {
+            VirtualFile file = findCached(fileSystem, path);
+            if (file != null) {
+                return file;
+            }
+            path = path.getParent();
+        }
+        return null;
+    }
+
+    @Nullable
+    private static VirtualFile findCached(LocalFileSystem fileSystem, Path path) {
+        // Unlike findFileByNioFile this never touches the disk to load unknown files
+        return fileSystem.findFileByPathIfCached(FileUtil.toSystemIndependentName(path.toString()));
+    }
+}
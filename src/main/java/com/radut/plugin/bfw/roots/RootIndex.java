@@ -0,0 +1,205 @@
+package com.radut.plugin.bfw.roots;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable segment trie over the project's source/test/generated/content roots.
+ * Classifying a path walks its segments once and does not allocate.
+ */
+public final class RootIndex {
+    public static final int SOURCE = 1;
+    public static final int TEST_SOURCE = 1 << 1;
+    public static final int GENERATED_SOURCE = 1 << 2;
+    public static final int CONTENT = 1 << 3;
+
+    public static final RootIndex EMPTY = new Builder().build();
+
+    private final Node root;
+    private final int rootCount;
+
+    private RootIndex(Node root, int rootCount) {
+        this.root = root;
+        this.rootCount = rootCount;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getRootCount() {
+        return rootCount;
+    }
+
+    /**
+     * @return the categories of every root that is the path itself or one of its ancestors, OR-ed together
+     */
+    public int classify(@NotNull CharSequence path) {
+        Node node = root;
+        int categories = node.categories;
+        int length = path.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && isSeparator(path.charAt(start))) {
+                start++;
+            }
+            if (start == length) {
+                break;
+            }
+            int end = start;
+            while (end < length && !isSeparator(path.charAt(end))) {
+                end++;
+            }
+            node = node.child(path, start, end);
+            if (node == null) {
+                break;
+            }
+            categories |= node.categories;
+            start = end;
+        }
+        return categories;
+    }
+
+    /**
+     * Walks the trie and reports every root with its categories, in no particular order.
+     */
+    public void forEachRoot(@NotNull RootConsumer consumer) {
+        root.forEach("", consumer);
+    }
+
+    public interface RootConsumer {
+        void accept(String path, int categories);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        // Same as String.hashCode() so stored keys and path regions agree
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node {
+        final int categories;
+        // Open addressing table; power-of-two sized, at most half full
+        final String[] keys;
+        final Node[] children;
+
+        Node(int categories, String[] keys, Node[] children) {
+            this.categories = categories;
+            this.keys = keys;
+            this.children = children;
+        }
+
+        Node child(CharSequence path, int start, int end) {
+            if (keys == null) {
+                return null;
+            }
+            int mask = keys.length - 1;
+            int length = end - start;
+            for (int slot = hash(path, start, end) & mask; ; slot = (slot + 1) & mask) {
+                String key = keys[slot];
+                if (key == null) {
+                    return null;
+                }
+                if (key.length() == length && regionEquals(key, path, start)) {
+                    return children[slot];
+                }
+            }
+        }
+
+        private static boolean regionEquals(String key, CharSequence path, int start) {
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != path.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void forEach(String prefix, RootConsumer consumer) {
+            if (categories != 0) {
+                consumer.accept(prefix, categories);
+            }
+            if (keys == null) {
+                return;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    // Windows drive letters start the path without a leading separator
+                    String path = prefix.isEmpty() && keys[i].endsWith(":") ? keys[i] : prefix + "/" + keys[i];
+                    children[i].forEach(path, consumer);
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final MutableNode root = new MutableNode();
+        private int rootCount;
+
+        private Builder() {
+        }
+
+        public Builder add(@NotNull String path, int category) {
+            MutableNode node = root;
+            int length = path.length();
+            int start = 0;
+            while (start < length) {
+                while (start < length && isSeparator(path.charAt(start))) {
+                    start++;
+                }
+                if (start == length) {
+                    break;
+                }
+                int end = start;
+                while (end < length && !isSeparator(path.charAt(end))) {
+                    end++;
+                }
+                node = node.children.computeIfAbsent(path.substring(start, end), k -> new MutableNode());
+                start = end;
+            }
+            if (node.categories == 0) {
+                rootCount++;
+            }
+            node.categories |= category;
+            return this;
+        }
+
+        public RootIndex build() {
+            return new RootIndex(root.freeze(), rootCount);
+        }
+    }
+
+    private static final class MutableNode {
+        int categories;
+        final Map<String, MutableNode> children = new HashMap<>();
+
+        Node freeze() {
+            if (children.isEmpty()) {
+                return new Node(categories, null, null);
+            }
+            int capacity = Integer.highestOneBit(children.size() * 2 - 1) << 1;
+            String[] keys = new String[capacity];
+            Node[] nodes = new Node[capacity];
+            int mask = capacity - 1;
+            for (Map.Entry<String, MutableNode> entry : children.entrySet()) {
+                String key = entry.getKey();
+                int slot = hash(key, 0, key.length()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                nodes[slot] = entry.getValue().freeze();
+            }
+            return new Node(categories, keys, nodes);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.radut.plugin.bfw.rules;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable, precompiled snapshot of the included/ignored regex filters.
+ * Built once whenever the settings change and read lock-free by the watch thread.
+ */
+public final class CompiledRules {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    public static final CompiledRules EMPTY = compile("", "");
+
+    private final long version;
+    private final RuleSet included;
+    private final RuleSet ignored;
+    private final List<String> invalidPatterns;
+
+    private CompiledRules(RuleSet included, RuleSet ignored, List<String> invalidPatterns) {
+        this.version = VERSIONS.incrementAndGet();
+        this.included = included;
+        this.ignored = ignored;
+        this.invalidPatterns = Collections.unmodifiableList(invalidPatterns);
+    }
+
+    @NotNull
+    public static CompiledRules compile(@Nullable String includedFilters, @Nullable String ignoredFilters) {
+        List<String> invalid = new ArrayList<>();
+        RuleSet included = RuleSet.compile("included", includedFilters, invalid);
+        RuleSet ignored = RuleSet.compile("ignored", ignoredFilters, invalid);
+        return new CompiledRules(included, ignored, invalid);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean hasIncluded() {
+        return !included.isEmpty();
+    }
+
+    public boolean hasIgnored() {
+        return !ignored.isEmpty();
+    }
+
+    /**
+     * @return the source of the first ignored pattern found in the path, or null if none matches
+     */
+    @Nullable
+    public String findIgnored(@NotNull CharSequence path) {
+        return ignored.find(path);
+    }
+
+    /**
+     * @return the source of the first included pattern found in the path, or null if none matches
+     */
+    @Nullable
+    public String findIncluded(@NotNull CharSequence path) {
+        return included.find(path);
+    }
+
+    /**
+     * Sources of the valid included patterns, in order.
+     */
+    @NotNull
+    public List<String> getIncludedSources() {
+        return List.of(included.sources);
+    }
+
+    /**
+     * Sources of the valid ignored patterns, in order.
+     */
+    @NotNull
+    public List<String> getIgnoredSources() {
+        return List.of(ignored.sources);
+    }
+
+    /**
+     * Patterns that failed to compile, formatted for logging. They are left out of the snapshot.
+     */
+    @NotNull
+    public List<String> getInvalidPatterns() {
+        return invalidPatterns;
+    }
+
+    private static final class RuleSet {
+        // Numbered/named back references change meaning once patterns are concatenated
+        private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+        private final String[] sources;
+        private final Pattern[] patterns;
+        // Alternation of all patterns; a miss here rejects the path with a single scan
+        private final Pattern combined;
+
+        private RuleSet(String[] sources, Pattern[] patterns, Pattern combined) {
+            this.sources = sources;
+            this.patterns = patterns;
+            this.combined = combined;
+        }
+
+        static RuleSet compile(String kind, String filters, List<String> invalid) {
+            List<String> sources = new ArrayList<>();
+            List<Pattern> patterns = new ArrayList<>();
+            if (filters != null && !filters.trim().isEmpty()) {
+                String[] lines = filters.split("\n");
+                for (int i = 0; i < lines.length; i++) {
+                    String patternStr = lines[i].trim();
+                    if (patternStr.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        patterns.add(Pattern.compile(patternStr));
+                        sources.add(patternStr);
+                    } catch (PatternSyntaxException e) {
+                        invalid.add("Invalid " + kind + " regex pattern on line " + (i + 1) + ": " + patternStr + " (" + e.getDescription() + ")");
+                    }
+                }
+            }
+            return new RuleSet(sources.toArray(new String[0]), patterns.toArray(new Pattern[0]), combine(sources));
+        }
+
+        private static Pattern combine(List<String> sources) {
+            if (sources.size() < 2) {
+                return null;
+            }
+            StringBuilder alternation = new StringBuilder();
+            for (String source : sources) {
+                if (BACK_REFERENCE.matcher(source).find()) {
+                    return null;
+                }
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(source).append(')');
+            }
+            try {
+                return Pattern.compile(alternation.toString());
+            } catch (PatternSyntaxException e) {
+                // e.g. comments mode swallowing the closing group - fall back to one pattern at a time
+                return null;
+            }
+        }
+
+        boolean isEmpty() {
+            return patterns.length == 0;
+        }
+
+        String find(CharSequence path) {
+            if (patterns.length == 0) {
+                return null;
+            }
+            if (combined != null && !combined.matcher(path).find()) {
+                return null;
+            }
+            for (int i = 0; i < patterns.length; i++) {
+                if (patterns[i].matcher(path).find()) {
+                    return sources[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.radut.plugin.bfw.rules;
+
+import com.radut.plugin.bfw.roots.RootIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides whether a changed file should trigger a reload: ignored regex filters first, then the enabled root
+ * categories (generated, source, test, content), then the included regex filters.
+ * Immutable snapshot of the rules and roots; works without a read action from any thread.
+ */
+public final class FileClassifier {
+    private static final Result IN_GENERATED_SOURCE = new Result(true, "InGeneratedSource", null);
+    private static final Result IN_SOURCE = new Result(true, "InSource", null);
+    private static final Result IN_TEST_SOURCE = new Result(true, "InTestSource", null);
+    private static final Result IN_CONTENT = new Result(true, "InProjectContent", null);
+    private static final Result NO_MATCH = new Result(false, "None", "No filters matched");
+
+    private final String basePath;
+    private final CompiledRules rules;
+    private final RootIndex roots;
+    private final int enabledCategories;
+
+    /**
+     * @param basePath          project directory the regex filters are relative to, or null to match absolute paths
+     * @param enabledCategories {@link RootIndex} categories whose files are accepted
+     */
+    public FileClassifier(@Nullable String basePath, @NotNull CompiledRules rules, @NotNull RootIndex roots, int enabledCategories) {
+        this.basePath = basePath;
+        this.rules = rules;
+        this.roots = roots;
+        this.enabledCategories = enabledCategories;
+    }
+
+    @NotNull
+    public Result classify(@NotNull String path) {
+        String relativePath = path;
+        if (basePath != null && path.length() > basePath.length() && path.startsWith(basePath)) {
+            relativePath = path.substring(basePath.length() + 1);
+        }
+
+        // First, check ignored regex filters - if matches any, ignore the file
+        String ignoredBy = rules.findIgnored(relativePath);
+        if (ignoredBy != null) {
+            return new Result(false, "Ignore Regex", ignoredBy);
+        }
+
+        int categories = roots.classify(path) & enabledCategories;
+        if ((categories & RootIndex.GENERATED_SOURCE) != 0) {
+            return IN_GENERATED_SOURCE;
+        }
+        if ((categories & RootIndex.SOURCE) != 0) {
+            return IN_SOURCE;
+        }
+        if ((categories & RootIndex.TEST_SOURCE) != 0) {
+            return IN_TEST_SOURCE;
+        }
+        if ((categories & RootIndex.CONTENT) != 0) {
+            return IN_CONTENT;
+        }
+
+        // Apply included regex filters
+        String includedBy = rules.findIncluded(relativePath);
+        if (includedBy != null) {
+            return new Result(true, "Regex: " + includedBy, null);
+        }
+
+        // No filters matched - reject the file
+        return NO_MATCH;
+    }
+
+    public static final class Result {
+        private final boolean relevant;
+        private final String matchedRule;
+        private final String details;
+
+        public Result(boolean relevant, @Nullable String matchedRule, @Nullable String details) {
+            this.relevant = relevant;
+            this.matchedRule = matchedRule;
+            this.details = details;
+        }
+
+        public boolean isRelevant() {
+            return relevant;
+        }
+
+        @Nullable
+        public String getMatchedRule() {
+            return matchedRule;
+        }
+
+        /**
+         * Why the file was ignored, or null if there is nothing worth reporting.
+         */
+        @Nullable
+        public String getDetails() {
+            return details;
+        }
+
+        /**
+         * Rule and details as shown in the event log and the statistics.
+         */
+        @NotNull
+        public String describe() {
+            return format(matchedRule, details);
+        }
+
+        @NotNull
+        public static String format(@Nullable String matchedRule, @Nullable String details) {
+            return (matchedRule != null ? matchedRule : "N/A") + (details != null && !details.isBlank() ? ": " + details : "");
+        }
+    }
+}
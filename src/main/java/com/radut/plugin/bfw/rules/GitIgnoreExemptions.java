@@ -0,0 +1,99 @@
+package com.radut.plugin.bfw.rules;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The subtrees .gitignore does not apply to because the filters accept files there explicitly: the roots of the
+ * enabled source, test and generated categories (generated sources usually live below an ignored target or build
+ * directory) and the literal prefixes of anchored include patterns. Their ancestors stay walkable so that the walk
+ * reaches them. Include patterns without an anchored prefix could match anywhere and exempt nothing.
+ * <p>
+ * Paths are absolute, with the separator the rules are matched with. Immutable.
+ */
+public final class GitIgnoreExemptions {
+    public static final GitIgnoreExemptions NONE = new GitIgnoreExemptions('/', List.of());
+
+    private final char separator;
+    // Absolute prefixes ending with a separator, or with part of a name for an include pattern
+    private final List<String> prefixes;
+
+    private GitIgnoreExemptions(char separator, List<String> prefixes) {
+        this.separator = separator;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @param basePath  project base path the rules are matched relative to
+     * @param roots     roots of the enabled source, test and generated categories
+     * @param rules     the regex filters
+     * @param separator separator of the paths the rules are matched against
+     */
+    @NotNull
+    public static GitIgnoreExemptions compute(@NotNull String basePath, @NotNull Collection<String> roots, @NotNull CompiledRules rules, char separator) {
+        String base = trimSeparator(basePath, separator) + separator;
+        List<String> prefixes = new ArrayList<>();
+        for (String root : roots) {
+            prefixes.add(trimSeparator(root, separator) + separator);
+        }
+        for (String source : rules.getIncludedSources()) {
+            String prefix = WatchScope.anchoredPrefix(source);
+            // An empty prefix would exempt the whole project
+            if (prefix != null && !prefix.isEmpty()) {
+                prefixes.add(base + prefix);
+            }
+        }
+        return prefixes.isEmpty() ? NONE : new GitIgnoreExemptions(separator, List.copyOf(prefixes));
+    }
+
+    /**
+     * @param path absolute path, without a trailing separator
+     * @return whether the path is in an exempted subtree
+     */
+    public boolean covers(@NotNull String path) {
+        String candidate = path + separator;
+        for (String prefix : prefixes) {
+            if (candidate.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param dir absolute directory path, without a trailing separator
+     * @return whether the directory is in an exempted subtree or on the way to one
+     */
+    public boolean coversOrContains(@NotNull String dir) {
+        String candidate = dir + separator;
+        for (String prefix : prefixes) {
+            if (candidate.startsWith(prefix) || prefix.startsWith(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trimSeparator(String path, char separator) {
+        return path.length() > 1 && path.charAt(path.length() - 1) == separator ? path.substring(0, path.length() - 1) : path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GitIgnoreExemptions)) {
+            return false;
+        }
+        return prefixes.equals(((GitIgnoreExemptions) o).prefixes);
+    }
+
+    @Override
+    public int hashCode() {
+        return prefixes.hashCode();
+    }
+}
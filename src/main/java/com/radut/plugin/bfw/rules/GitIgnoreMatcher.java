@@ -0,0 +1,361 @@
+package com.radut.plugin.bfw.rules;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether paths below a root are ignored by git: the .gitignore files of every directory (loaded lazily,
+ * deeper ones taking precedence), .git/info/exclude, negations, and directories that cannot be re-included once a
+ * parent is ignored. Decisions for directories are cached until a .gitignore is reloaded. Thread-safe.
+ */
+public final class GitIgnoreMatcher {
+    private static final String FILE_NAME = ".gitignore";
+    private static final RuleList NONE = new RuleList(new Rule[0]);
+
+    private final Path root;
+    // Rules of each directory checked so far, NONE if it has no .gitignore
+    private final Map<Path, RuleList> rulesByDir = new ConcurrentHashMap<>();
+    private final Map<Path, Boolean> ignoredDirs = new ConcurrentHashMap<>();
+
+    public GitIgnoreMatcher(@NotNull Path root) {
+        this.root = root;
+    }
+
+    public static boolean isGitIgnoreFile(@NotNull Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().equals(FILE_NAME);
+    }
+
+    /**
+     * @param isDirectory whether the path is a directory, for patterns ending with a slash
+     */
+    public boolean isIgnored(@NotNull Path path, boolean isDirectory) {
+        if (path.equals(root) || !path.startsWith(root)) {
+            return false;
+        }
+        if (isDirectory) {
+            return isDirectoryIgnored(path);
+        }
+        return isDirectoryIgnored(path.getParent()) || matches(path, false);
+    }
+
+    /**
+     * @return whether a parent directory of the path is ignored, which no pattern can undo
+     */
+    public boolean isInIgnoredDirectory(@NotNull Path path) {
+        Path parent = path.getParent();
+        return parent != null && path.startsWith(root) && isDirectoryIgnored(parent);
+    }
+
+    private boolean isDirectoryIgnored(Path dir) {
+        if (dir.equals(root) || !dir.startsWith(root)) {
+            return false;
+        }
+        Boolean ignored = ignoredDirs.get(dir);
+        if (ignored == null) {
+            ignored = isDirectoryIgnored(dir.getParent()) || matches(dir, true);
+            ignoredDirs.put(dir, ignored);
+        }
+        return ignored;
+    }
+
+    /**
+     * The last matching pattern decides, and patterns of deeper .gitignore files come after the shallower ones.
+     */
+    private boolean matches(Path path, boolean isDirectory) {
+        String name = path.getFileName().toString();
+        for (Path dir = path.getParent(); dir != null && dir.startsWith(root); dir = dir.getParent()) {
+            RuleList rules = rulesOf(dir);
+            if (rules.rules.length == 0) {
+                continue;
+            }
+            String relative = toRelative(dir, path);
+            for (int i = rules.rules.length - 1; i >= 0; i--) {
+                Rule rule = rules.rules[i];
+                if (rule.matches(relative, name, isDirectory)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String toRelative(Path dir, Path path) {
+        StringBuilder relative = new StringBuilder();
+        for (int i = dir.getNameCount(); i < path.getNameCount(); i++) {
+            if (relative.length() > 0) {
+                relative.append('/');
+            }
+            relative.append(path.getName(i));
+        }
+        return relative.toString();
+    }
+
+    private RuleList rulesOf(Path dir) {
+        RuleList rules = rulesByDir.get(dir);
+        if (rules == null) {
+            List<Rule> parsed = new ArrayList<>();
+            if (dir.equals(root)) {
+                // Lowest precedence of the root's patterns
+                read(root.resolve(".git").resolve("info").resolve("exclude"), parsed);
+            }
+            read(dir.resolve(FILE_NAME), parsed);
+            rules = parsed.isEmpty() ? NONE : new RuleList(parsed.toArray(new Rule[0]));
+            RuleList previous = rulesByDir.putIfAbsent(dir, rules);
+            if (previous != null) {
+                rules = previous;
+            }
+        }
+        return rules;
+    }
+
+    private static void read(Path file, List<Rule> rules) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException | SecurityException e) {
+            // Unreadable or not a file: nothing ignored by it
+            return;
+        }
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+    }
+
+    /**
+     * Forgets the rules of the directory after its .gitignore was created, changed or deleted.
+     */
+    public void reload(@NotNull Path dir) {
+        rulesByDir.remove(dir);
+        ignoredDirs.clear();
+    }
+
+    /**
+     * Forgets everything, e.g. after a branch switch that may have changed any .gitignore.
+     */
+    public void invalidate() {
+        rulesByDir.clear();
+        ignoredDirs.clear();
+    }
+
+    /**
+     * @return the number of .gitignore files (and .git/info/exclude) loaded with at least one pattern
+     */
+    public int getRuleFileCount() {
+        int count = 0;
+        for (RuleList rules : rulesByDir.values()) {
+            if (rules != NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static final class RuleList {
+        final Rule[] rules;
+
+        RuleList(Rule[] rules) {
+            this.rules = rules;
+        }
+    }
+
+    static final class Rule {
+        final boolean negated;
+        final boolean directoryOnly;
+        // Matched against the path relative to the .gitignore's directory, otherwise against the name only
+        final boolean anchored;
+        // Plain names are compared directly; everything else goes through the pattern
+        final String literal;
+        final Pattern pattern;
+
+        private Rule(boolean negated, boolean directoryOnly, boolean anchored, String literal, Pattern pattern) {
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+
+        /**
+         * @return the rule of a .gitignore line, or null for blank lines, comments and patterns that cannot match
+         */
+        static Rule parse(String line) {
+            String text = trimTrailingSpaces(line);
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negated = false;
+            if (text.startsWith("!")) {
+                negated = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\!") || text.startsWith("\\#")) {
+                text = text.substring(1);
+            }
+            boolean directoryOnly = false;
+            if (text.endsWith("/")) {
+                directoryOnly = true;
+                text = text.substring(0, text.length() - 1);
+            }
+            // A slash at the beginning or in the middle anchors the pattern to the .gitignore's directory
+            boolean anchored = text.indexOf('/') >= 0;
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            if (!anchored && isLiteral(text)) {
+                return new Rule(negated, directoryOnly, false, text, null);
+            }
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(toRegex(text));
+            } catch (PatternSyntaxException e) {
+                // A bracket expression that cannot match anything, such as [!]
+                return null;
+            }
+            return new Rule(negated, directoryOnly, anchored, null, pattern);
+        }
+
+        boolean matches(String relative, String name, boolean isDirectory) {
+            if (directoryOnly && !isDirectory) {
+                return false;
+            }
+            if (literal != null) {
+                return name.equals(literal);
+            }
+            return pattern.matcher(anchored ? relative : name).matches();
+        }
+
+        private static boolean isLiteral(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '*' || c == '?' || c == '[' || c == '\\') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String trimTrailingSpaces(String line) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            return line.substring(0, end);
+        }
+
+        static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int length = glob.length();
+            int i = 0;
+            while (i < length) {
+                char c = glob.charAt(i);
+                if (c == '*' && i + 1 < length && glob.charAt(i + 1) == '*'
+                        && (i == 0 || glob.charAt(i - 1) == '/')) {
+                    if (i + 2 == length) {
+                        // Trailing "**": everything inside
+                        regex.append(".*");
+                        i += 2;
+                        continue;
+                    }
+                    if (glob.charAt(i + 2) == '/') {
+                        // "**/": zero or more directories
+                        regex.append("(?:.*/)?");
+                        i += 3;
+                        continue;
+                    }
+                }
+                switch (c) {
+                    case '*':
+                        regex.append("[^/]*");
+                        break;
+                    case '?':
+                        regex.append("[^/]");
+                        break;
+                    case '[': {
+                        int close = glob.indexOf(']', i + 2);
+                        if (close < 0) {
+                            regex.append("\\[");
+                            break;
+                        }
+                        appendCharacterClass(glob.substring(i + 1, close), regex);
+                        i = close;
+                        break;
+                    }
+                    case '\\':
+                        if (i + 1 < length) {
+                            i++;
+                            regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                        }
+                        break;
+                    default:
+                        if ("\\.[]{}()<>+-=!^$|".indexOf(c) >= 0) {
+                            regex.append('\\');
+                        }
+                        regex.append(c);
+                        break;
+                }
+                i++;
+            }
+            return regex.toString();
+        }
+
+        /**
+         * Translates the content of a bracket expression. Like git, a reversed range such as z-a only matches its
+         * first character.
+         */
+        private static void appendCharacterClass(String content, StringBuilder regex) {
+            regex.append('[');
+            int i = 0;
+            if (content.startsWith("!") || content.startsWith("^")) {
+                regex.append('^');
+                i = 1;
+            }
+            int length = content.length();
+            while (i < length) {
+                char first = content.charAt(i);
+                if (first == '\\' && i + 1 < length) {
+                    first = content.charAt(++i);
+                }
+                i++;
+                appendClassCharacter(first, regex);
+                if (i + 1 < length && content.charAt(i) == '-') {
+                    char last = content.charAt(i + 1);
+                    i += 2;
+                    if (last == '\\' && i < length) {
+                        last = content.charAt(i++);
+                    }
+                    if (last > first) {
+                        regex.append('-');
+                        appendClassCharacter(last, regex);
+                    }
+                }
+            }
+            regex.append(']');
+        }
+
+        private static void appendClassCharacter(char c, StringBuilder regex) {
+            if (!Character.isLetterOrDigit(c)) {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+    }
+}
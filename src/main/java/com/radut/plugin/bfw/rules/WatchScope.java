@@ -0,0 +1,247 @@
+package com.radut.plugin.bfw.rules;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The directories worth watching: those in which some enabled rule could accept a file. Derived from the roots of
+ * the enabled categories and the literal prefixes of anchored include patterns, minus the subtrees an ignore pattern
+ * rejects entirely. Ancestors of a subtree are in scope too, so that the subtree is noticed when it is created.
+ * <p>
+ * Paths are absolute, with the separator the rules are matched with. Immutable.
+ */
+public final class WatchScope {
+    public static final WatchScope ALL = new WatchScope("", '/', null, List.of(), List.of());
+
+    private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+
+    private final String basePath;
+    private final char separator;
+    // Absolute prefixes (ending with a separator, or with part of a name) that contain every acceptable file; null for the whole tree
+    private final List<String> prefixes;
+    // Absolute prefixes, and literals anywhere in the relative path, that only contain ignored files
+    private final List<String> ignoredPrefixes;
+    private final List<String> ignoredLiterals;
+
+    private WatchScope(String basePath, char separator, @Nullable List<String> prefixes, List<String> ignoredPrefixes, List<String> ignoredLiterals) {
+        this.basePath = basePath;
+        this.separator = separator;
+        this.prefixes = prefixes;
+        this.ignoredPrefixes = ignoredPrefixes;
+        this.ignoredLiterals = ignoredLiterals;
+    }
+
+    /**
+     * @param basePath   project base path the rules are matched relative to
+     * @param roots      roots of the enabled categories
+     * @param rules      the regex filters
+     * @param separator  separator of the paths the rules are matched against
+     */
+    @NotNull
+    public static WatchScope compute(@NotNull String basePath, @NotNull Collection<String> roots, @NotNull CompiledRules rules, char separator) {
+        String base = trimSeparator(basePath, separator) + separator;
+        List<String> prefixes = new ArrayList<>();
+        for (String root : roots) {
+            prefixes.add(trimSeparator(root, separator) + separator);
+        }
+        for (String source : rules.getIncludedSources()) {
+            String prefix = anchoredPrefix(source);
+            if (prefix == null) {
+                // Can match anywhere below the base path
+                prefixes = null;
+                break;
+            }
+            prefixes.add(base + prefix);
+        }
+
+        List<String> ignoredPrefixes = new ArrayList<>();
+        List<String> ignoredLiterals = new ArrayList<>();
+        for (String source : rules.getIgnoredSources()) {
+            String rest = source.endsWith(".*") ? source.substring(0, source.length() - 2) : source;
+            boolean anchored = rest.startsWith("^");
+            if (anchored) {
+                rest = rest.substring(1);
+            }
+            String literal = literalPrefix(rest);
+            // Only a pattern that is nothing but the literal accepts every path containing it
+            if (literal.isEmpty() || literalLength(rest) != rest.length()) {
+                continue;
+            }
+            if (anchored) {
+                ignoredPrefixes.add(base + literal);
+            } else {
+                ignoredLiterals.add(literal);
+            }
+        }
+        return new WatchScope(base, separator, prefixes == null ? null : List.copyOf(prefixes), List.copyOf(ignoredPrefixes), List.copyOf(ignoredLiterals));
+    }
+
+    /**
+     * @param dir absolute directory path, without a trailing separator
+     * @return whether a file in the directory or below it could be accepted by the rules
+     */
+    public boolean contains(@NotNull String dir) {
+        String path = dir + separator;
+        if (prefixes != null) {
+            boolean inScope = false;
+            for (String prefix : prefixes) {
+                // Inside the subtree (a prefix ending with part of a name admits the names starting with it), or on the way to it
+                if (path.startsWith(prefix) || prefix.startsWith(path)) {
+                    inScope = true;
+                    break;
+                }
+            }
+            if (!inScope) {
+                return false;
+            }
+        }
+        for (String prefix : ignoredPrefixes) {
+            if (path.startsWith(prefix)) {
+                return false;
+            }
+        }
+        if (!ignoredLiterals.isEmpty() && path.startsWith(basePath)) {
+            String relative = path.substring(basePath.length());
+            for (String literal : ignoredLiterals) {
+                if (relative.contains(literal)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean isAll() {
+        return prefixes == null && ignoredPrefixes.isEmpty() && ignoredLiterals.isEmpty();
+    }
+
+    /**
+     * Short description for logging.
+     */
+    @NotNull
+    public String describe() {
+        return (prefixes == null ? "whole tree" : prefixes.size() + " subtrees")
+                + (ignoredPrefixes.size() + ignoredLiterals.size() == 0 ? "" : ", " + (ignoredPrefixes.size() + ignoredLiterals.size()) + " ignored");
+    }
+
+    /**
+     * @return the literal text every match starts with if the pattern is anchored at the start, otherwise null
+     */
+    @Nullable
+    static String anchoredPrefix(String source) {
+        if (!source.startsWith("^")) {
+            return null;
+        }
+        String rest = source.substring(1);
+        if (hasTopLevelAlternation(rest)) {
+            // The other branches are not anchored
+            return null;
+        }
+        String literal = literalPrefix(rest);
+        int length = literalLength(rest);
+        if (length < rest.length() && !literal.isEmpty()) {
+            char next = rest.charAt(length);
+            // An optional or repeated last character is not part of every match
+            if (next == '?' || next == '*' || next == '{') {
+                literal = literal.substring(0, literal.length() - 1);
+            }
+        }
+        return literal;
+    }
+
+    /**
+     * @return the unescaped literal characters at the start of the pattern
+     */
+    static String literalPrefix(String pattern) {
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < pattern.length() && !Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+                    literal.append(pattern.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                break;
+            }
+            if (META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            literal.append(c);
+            i++;
+        }
+        return literal.toString();
+    }
+
+    /**
+     * @return the number of pattern characters making up {@link #literalPrefix(String)}
+     */
+    private static int literalLength(String pattern) {
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < pattern.length() && !Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+                    i += 2;
+                    continue;
+                }
+                break;
+            }
+            if (META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean hasTopLevelAlternation(String pattern) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trimSeparator(String path, char separator) {
+        return path.length() > 1 && path.charAt(path.length() - 1) == separator ? path.substring(0, path.length() - 1) : path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WatchScope)) {
+            return false;
+        }
+        WatchScope other = (WatchScope) o;
+        return basePath.equals(other.basePath) && Objects.equals(prefixes, other.prefixes)
+                && ignoredPrefixes.equals(other.ignoredPrefixes) && ignoredLiterals.equals(other.ignoredLiterals);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(basePath, prefixes, ignoredPrefixes, ignoredLiterals);
+    }
+}
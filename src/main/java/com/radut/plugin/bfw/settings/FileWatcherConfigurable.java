@@ -4,6 +4,7 @@ import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.NlsContexts;
+import com.radut.plugin.bfw.FileWatcherService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,7 +45,19 @@ public class FileWatcherConfigurable implements Configurable {
                settingsComponent.isInGeneratedSource() != state.isInGeneratedSource ||
                settingsComponent.isAutoReloadEnabled() != state.autoReloadEnabled ||
                settingsComponent.isAutoRebuildEnabled() != state.autoRebuildEnabled ||
+               settingsComponent.isModuleScopedBuild() != state.moduleScopedBuild ||
+               settingsComponent.isSuppressUnchangedContent() != state.suppressUnchangedContent ||
                settingsComponent.getDebounceDelayMs() != state.debounceDelayMs ||
+               settingsComponent.getMaxDebounceWaitMs() != state.maxDebounceWaitMs ||
+               settingsComponent.isLeadingEdgeReload() != state.leadingEdgeReload ||
+               settingsComponent.isAutoTuneDebounce() != state.autoTuneDebounce ||
+               settingsComponent.getStormThreshold() != state.stormThreshold ||
+               settingsComponent.isUseNativeWatcher() != state.useNativeWatcher ||
+               settingsComponent.getWatcherShards() != state.watcherShards ||
+               settingsComponent.isSharedWatcher() != state.sharedWatcher ||
+               settingsComponent.isMinimalWatchSet() != state.minimalWatchSet ||
+               settingsComponent.isRespectGitIgnore() != state.respectGitIgnore ||
+               settingsComponent.isDetectOfflineChanges() != state.detectOfflineChanges ||
                !settingsComponent.getPathRegexFilters().equals(state.pathRegexFilters) ||
                !settingsComponent.getIgnoredRegexFilters().equals(state.ignoredRegexFilters);
     }
@@ -94,9 +107,23 @@ public class FileWatcherConfigurable implements Configurable {
         settings.setIsInGeneratedSource(settingsComponent.isInGeneratedSource());
         settings.setAutoReloadEnabled(settingsComponent.isAutoReloadEnabled());
         settings.setAutoRebuildEnabled(settingsComponent.isAutoRebuildEnabled());
+        settings.setModuleScopedBuild(settingsComponent.isModuleScopedBuild());
+        settings.setSuppressUnchangedContent(settingsComponent.isSuppressUnchangedContent());
         settings.setDebounceDelayMs(settingsComponent.getDebounceDelayMs());
+        settings.setMaxDebounceWaitMs(settingsComponent.getMaxDebounceWaitMs());
+        settings.setLeadingEdgeReload(settingsComponent.isLeadingEdgeReload());
+        settings.setAutoTuneDebounce(settingsComponent.isAutoTuneDebounce());
+        settings.setStormThreshold(settingsComponent.getStormThreshold());
+        settings.setUseNativeWatcher(settingsComponent.isUseNativeWatcher());
+        settings.setWatcherShards(settingsComponent.getWatcherShards());
+        settings.setSharedWatcher(settingsComponent.isSharedWatcher());
+        settings.setMinimalWatchSet(settingsComponent.isMinimalWatchSet());
+        settings.setRespectGitIgnore(settingsComponent.isRespectGitIgnore());
+        settings.setDetectOfflineChanges(settingsComponent.isDetectOfflineChanges());
         settings.setPathRegexFilters(settingsComponent.getPathRegexFilters());
         settings.setIgnoredRegexFilters(settingsComponent.getIgnoredRegexFilters());
+        settings.recompileRules();
+        project.getService(FileWatcherService.class).reconcileWatches("settings changed");
     }
 
     @Override
@@ -110,7 +137,19 @@ public class FileWatcherConfigurable implements Configurable {
         settingsComponent.setIsInGeneratedSource(state.isInGeneratedSource);
         settingsComponent.setAutoReloadEnabled(state.autoReloadEnabled);
         settingsComponent.setAutoRebuildEnabled(state.autoRebuildEnabled);
+        settingsComponent.setModuleScopedBuild(state.moduleScopedBuild);
+        settingsComponent.setSuppressUnchangedContent(state.suppressUnchangedContent);
         settingsComponent.setDebounceDelayMs(state.debounceDelayMs);
+        settingsComponent.setMaxDebounceWaitMs(state.maxDebounceWaitMs);
+        settingsComponent.setLeadingEdgeReload(state.leadingEdgeReload);
+        settingsComponent.setAutoTuneDebounce(state.autoTuneDebounce);
+        settingsComponent.setStormThreshold(state.stormThreshold);
+        settingsComponent.setUseNativeWatcher(state.useNativeWatcher);
+        settingsComponent.setWatcherShards(state.watcherShards);
+        settingsComponent.setSharedWatcher(state.sharedWatcher);
+        settingsComponent.setMinimalWatchSet(state.minimalWatchSet);
+        settingsComponent.setRespectGitIgnore(state.respectGitIgnore);
+        settingsComponent.setDetectOfflineChanges(state.detectOfflineChanges);
         settingsComponent.setPathRegexFilters(state.pathRegexFilters);
         settingsComponent.setIgnoredRegexFilters(state.ignoredRegexFilters);
     }
@@ -4,7 +4,9 @@ import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.radut.plugin.bfw.rules.CompiledRules;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -13,8 +15,11 @@ import org.jetbrains.annotations.Nullable;
     storages = @Storage(StoragePathMacros.WORKSPACE_FILE)
 )
 public class FileWatcherSettings implements PersistentStateComponent<FileWatcherSettings.State> {
+    private static final Logger LOG = Logger.getInstance(FileWatcherSettings.class);
 
     private State state = new State();
+    // Published as a whole so the watch thread never sees a half-updated rule set
+    private volatile CompiledRules compiledRules = CompiledRules.EMPTY;
 
     public static FileWatcherSettings getInstance(@NotNull Project project) {
         return project.getService(FileWatcherSettings.class);
@@ -29,6 +34,23 @@ public class FileWatcherSettings implements PersistentStateComponent<FileWatcher
     @Override
     public void loadState(@NotNull State state) {
         this.state = state;
+        recompileRules();
+    }
+
+    /**
+     * Rebuilds the regex rule snapshot from the current state. Call after changing the regex filters.
+     */
+    public void recompileRules() {
+        CompiledRules rules = CompiledRules.compile(state.pathRegexFilters, state.ignoredRegexFilters);
+        for (String invalidPattern : rules.getInvalidPatterns()) {
+            LOG.warn(invalidPattern);
+        }
+        compiledRules = rules;
+    }
+
+    @NotNull
+    public CompiledRules getCompiledRules() {
+        return compiledRules;
     }
 
     public static class State {
@@ -38,9 +60,22 @@ public class FileWatcherSettings implements PersistentStateComponent<FileWatcher
         public boolean isInContent = true;
         public boolean autoReloadEnabled = true;
         public boolean autoRebuildEnabled = true;
+        public boolean moduleScopedBuild = false;
+        public boolean suppressUnchangedContent = false;
         public int debounceDelayMs = 500;
+        public int maxDebounceWaitMs = 5000;
+        public boolean leadingEdgeReload = true;
+        public boolean autoTuneDebounce = false;
+        public int stormThreshold = 2000;
         public String pathRegexFilters = "";
         public String ignoredRegexFilters = "";
+        public boolean useNativeWatcher = false;
+        public int watcherShards = 1;
+        public boolean sharedWatcher = true;
+        public boolean minimalWatchSet = true;
+        // Off by default: ignored local files (application-local.yml, .env) would stop triggering reloads
+        public boolean respectGitIgnore = false;
+        public boolean detectOfflineChanges = true;
     }
 
     // Convenience methods
@@ -92,6 +127,22 @@ public class FileWatcherSettings implements PersistentStateComponent<FileWatcher
         state.autoRebuildEnabled = value;
     }
 
+    public boolean isModuleScopedBuild() {
+        return state.moduleScopedBuild;
+    }
+
+    public void setModuleScopedBuild(boolean value) {
+        state.moduleScopedBuild = value;
+    }
+
+    public boolean isSuppressUnchangedContent() {
+        return state.suppressUnchangedContent;
+    }
+
+    public void setSuppressUnchangedContent(boolean value) {
+        state.suppressUnchangedContent = value;
+    }
+
     public int getDebounceDelayMs() {
         return state.debounceDelayMs;
     }
@@ -115,4 +166,84 @@ public class FileWatcherSettings implements PersistentStateComponent<FileWatcher
     public void setIgnoredRegexFilters(String value) {
         state.ignoredRegexFilters = value;
     }
+
+    public int getMaxDebounceWaitMs() {
+        return state.maxDebounceWaitMs;
+    }
+
+    public void setMaxDebounceWaitMs(int value) {
+        state.maxDebounceWaitMs = value;
+    }
+
+    public boolean isLeadingEdgeReload() {
+        return state.leadingEdgeReload;
+    }
+
+    public void setLeadingEdgeReload(boolean value) {
+        state.leadingEdgeReload = value;
+    }
+
+    public boolean isAutoTuneDebounce() {
+        return state.autoTuneDebounce;
+    }
+
+    public void setAutoTuneDebounce(boolean value) {
+        state.autoTuneDebounce = value;
+    }
+
+    public int getStormThreshold() {
+        return state.stormThreshold;
+    }
+
+    public void setStormThreshold(int value) {
+        state.stormThreshold = value;
+    }
+
+    public boolean isUseNativeWatcher() {
+        return state.useNativeWatcher;
+    }
+
+    public void setUseNativeWatcher(boolean value) {
+        state.useNativeWatcher = value;
+    }
+
+    public int getWatcherShards() {
+        return state.watcherShards;
+    }
+
+    public void setWatcherShards(int value) {
+        state.watcherShards = value;
+    }
+
+    public boolean isSharedWatcher() {
+        return state.sharedWatcher;
+    }
+
+    public void setSharedWatcher(boolean value) {
+        state.sharedWatcher = value;
+    }
+
+    public boolean isMinimalWatchSet() {
+        return state.minimalWatchSet;
+    }
+
+    public void setMinimalWatchSet(boolean value) {
+        state.minimalWatchSet = value;
+    }
+
+    public boolean isRespectGitIgnore() {
+        return state.respectGitIgnore;
+    }
+
+    public void setRespectGitIgnore(boolean value) {
+        state.respectGitIgnore = value;
+    }
+
+    public boolean isDetectOfflineChanges() {
+        return state.detectOfflineChanges;
+    }
+
+    public void setDetectOfflineChanges(boolean value) {
+        state.detectOfflineChanges = value;
+    }
 }
@@ -21,12 +21,27 @@ public class FileWatcherSettingsComponent {
     private final JBCheckBox isInGeneratedSource = new JBCheckBox("Include generated source files");
     private final JBCheckBox autoReloadEnabled = new JBCheckBox("Enable automatic reload from disk");
     private final JBCheckBox autoRebuildEnabled = new JBCheckBox("Enable automatic rebuild after reload");
+    private final JBCheckBox moduleScopedBuild = new JBCheckBox("Build only the modules affected by the changes");
+    private final JBCheckBox suppressUnchangedContent = new JBCheckBox("Ignore modifications that leave the file content unchanged");
     private final JBTextField debounceDelayField = new JBTextField();
+    private final JBTextField maxDebounceWaitField = new JBTextField();
+    private final JBCheckBox leadingEdgeReload = new JBCheckBox("Reload immediately for an isolated single-file change");
+    private final JBCheckBox autoTuneDebounce = new JBCheckBox("Adapt the debounce delay to how fast changes arrive");
+    private final JBTextField stormThresholdField = new JBTextField();
+    private final JBCheckBox useNativeWatcher = new JBCheckBox("Use native inotify watcher on Linux");
+    private final JBTextField watcherShardsField = new JBTextField();
+    private final JBCheckBox sharedWatcher = new JBCheckBox("Share one watcher with the other open projects");
+    private final JBCheckBox minimalWatchSet = new JBCheckBox("Only watch directories the enabled filters can match");
+    private final JBCheckBox respectGitIgnore = new JBCheckBox("Skip files and directories ignored by .gitignore");
+    private final JBCheckBox detectOfflineChanges = new JBCheckBox("Detect changes made while the project was closed");
     private final JBTextArea pathRegexFiltersArea = new JBTextArea();
     private final JBTextArea ignoredRegexFiltersArea = new JBTextArea();
 
     public FileWatcherSettingsComponent() {
         debounceDelayField.setColumns(6);
+        maxDebounceWaitField.setColumns(6);
+        stormThresholdField.setColumns(6);
+        watcherShardsField.setColumns(6);
         pathRegexFiltersArea.setRows(5);
         pathRegexFiltersArea.setLineWrap(false);
         ignoredRegexFiltersArea.setRows(5);
@@ -81,9 +96,36 @@ public class FileWatcherSettingsComponent {
                 .addTooltip("Automatically reload files from disk when changes are detected")
                 .addComponent(autoRebuildEnabled, 1)
                 .addTooltip("Automatically rebuild the project after reloading files")
+                .addComponent(moduleScopedBuild, 1)
+                .addTooltip("Build the modules owning the changed files and the modules depending on them, instead of the whole project")
+                .addComponent(suppressUnchangedContent, 1)
+                .addTooltip("Hash changed files (up to 16 MB) and skip reload/rebuild when a tool rewrote them with identical content")
                 .addVerticalGap(10)
                 .addLabeledComponent(new JBLabel("Debounce delay (milliseconds):"), debounceDelayField, 1)
                 .addTooltip("Wait this many milliseconds after the last change before triggering reload/rebuild")
+                .addLabeledComponent(new JBLabel("Maximum debounce wait (milliseconds):"), maxDebounceWaitField, 1)
+                .addTooltip("Trigger reload/rebuild at the latest this many milliseconds after the first change, even if changes keep coming")
+                .addComponent(leadingEdgeReload, 1)
+                .addTooltip("Skip the debounce delay when a single file changes after a quiet period")
+                .addComponent(autoTuneDebounce, 1)
+                .addTooltip("Shorten the debounce delay when changes arrive in quick bursts; the configured delay is the upper bound")
+                .addVerticalGap(15)
+                .addComponent(new JBLabel("<html><b>Watcher Backend</b></html>"), 0)
+                .addVerticalGap(10)
+                .addComponent(useNativeWatcher, 1)
+                .addTooltip("Watch through inotify directly: larger event buffer, overflow reporting and rename tracking. Takes effect when the project is reopened")
+                .addLabeledComponent(new JBLabel("Watcher threads:"), watcherShardsField, 1)
+                .addTooltip("Split the watched directories (by content root) over this many watchers, each read by its own thread. Useful for very large repositories. Takes effect when the project is reopened")
+                .addComponent(sharedWatcher, 1)
+                .addTooltip("Watch all open projects with a single watcher and thread; directories shared by several projects are watched once. Projects with different watcher options above get one shared watcher per combination. Takes effect when the project is reopened")
+                .addComponent(minimalWatchSet, 1)
+                .addTooltip("Skip directories outside the roots of the enabled categories and the literal prefixes of include regexes anchored with ^, and subtrees an ignore regex rejects entirely. Unanchored include regexes keep the whole tree watched")
+                .addComponent(respectGitIgnore, 1)
+                .addTooltip("Do not watch directories that .gitignore files (and .git/info/exclude) ignore, such as node_modules or build output that is not excluded in the project, and drop their events before they are classified. Ignored files in resource and content roots, such as local configuration, no longer trigger a reload")
+                .addComponent(detectOfflineChanges, 1)
+                .addTooltip("Remember the directory listings between sessions and reload what changed on disk in the meantime when the project opens")
+                .addLabeledComponent(new JBLabel("Change storm threshold (events per second):"), stormThresholdField, 1)
+                .addTooltip("Above this rate (or when git switches branches) events are no longer processed one by one; the storm ends with one full synchronize. 0 disables storm detection")
                 .addComponentFillVertically(new JPanel(), 0)
                 .getPanel();
     }
@@ -140,6 +182,22 @@ public class FileWatcherSettingsComponent {
         autoRebuildEnabled.setSelected(value);
     }
 
+    public boolean isModuleScopedBuild() {
+        return moduleScopedBuild.isSelected();
+    }
+
+    public void setModuleScopedBuild(boolean value) {
+        moduleScopedBuild.setSelected(value);
+    }
+
+    public boolean isSuppressUnchangedContent() {
+        return suppressUnchangedContent.isSelected();
+    }
+
+    public void setSuppressUnchangedContent(boolean value) {
+        suppressUnchangedContent.setSelected(value);
+    }
+
     public int getDebounceDelayMs() {
         try {
             return Integer.parseInt(debounceDelayField.getText());
@@ -152,6 +210,34 @@ public class FileWatcherSettingsComponent {
         debounceDelayField.setText(String.valueOf(value));
     }
 
+    public int getMaxDebounceWaitMs() {
+        try {
+            return Integer.parseInt(maxDebounceWaitField.getText());
+        } catch (NumberFormatException e) {
+            return 5000; // default
+        }
+    }
+
+    public void setMaxDebounceWaitMs(int value) {
+        maxDebounceWaitField.setText(String.valueOf(value));
+    }
+
+    public boolean isLeadingEdgeReload() {
+        return leadingEdgeReload.isSelected();
+    }
+
+    public void setLeadingEdgeReload(boolean value) {
+        leadingEdgeReload.setSelected(value);
+    }
+
+    public boolean isAutoTuneDebounce() {
+        return autoTuneDebounce.isSelected();
+    }
+
+    public void setAutoTuneDebounce(boolean value) {
+        autoTuneDebounce.setSelected(value);
+    }
+
     public String getPathRegexFilters() {
         return pathRegexFiltersArea.getText();
     }
@@ -167,4 +253,68 @@ public class FileWatcherSettingsComponent {
     public void setIgnoredRegexFilters(String value) {
         ignoredRegexFiltersArea.setText(value != null ? value : "");
     }
+
+    public int getStormThreshold() {
+        try {
+            return Integer.parseInt(stormThresholdField.getText());
+        } catch (NumberFormatException e) {
+            return 2000; // default
+        }
+    }
+
+    public void setStormThreshold(int value) {
+        stormThresholdField.setText(String.valueOf(value));
+    }
+
+    public boolean isUseNativeWatcher() {
+        return useNativeWatcher.isSelected();
+    }
+
+    public void setUseNativeWatcher(boolean value) {
+        useNativeWatcher.setSelected(value);
+    }
+
+    public int getWatcherShards() {
+        try {
+            return Math.max(1, Math.min(16, Integer.parseInt(watcherShardsField.getText())));
+        } catch (NumberFormatException e) {
+            return 1; // default
+        }
+    }
+
+    public void setWatcherShards(int value) {
+        watcherShardsField.setText(String.valueOf(value));
+    }
+
+    public boolean isRespectGitIgnore() {
+        return respectGitIgnore.isSelected();
+    }
+
+    public void setRespectGitIgnore(boolean value) {
+        respectGitIgnore.setSelected(value);
+    }
+
+    public boolean isMinimalWatchSet() {
+        return minimalWatchSet.isSelected();
+    }
+
+    public void setMinimalWatchSet(boolean value) {
+        minimalWatchSet.setSelected(value);
+    }
+
+    public boolean isSharedWatcher() {
+        return sharedWatcher.isSelected();
+    }
+
+    public void setSharedWatcher(boolean value) {
+        sharedWatcher.setSelected(value);
+    }
+
+    public boolean isDetectOfflineChanges() {
+        return detectOfflineChanges.isSelected();
+    }
+
+    public void setDetectOfflineChanges(boolean value) {
+        detectOfflineChanges.setSelected(value);
+    }
 }
@@ -0,0 +1,224 @@
+package com.radut.plugin.bfw.toolwindow;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.radut.plugin.bfw.log.EventFilter;
+import com.radut.plugin.bfw.log.EventJournal;
+import com.radut.plugin.bfw.log.EventRecord;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Window onto the {@link EventJournal}: rows are decoded and formatted only when rendered.
+ * The visible range only changes in {@link #refresh()}, so Swing sees consistent row counts. EDT only.
+ * <p>
+ * With a filter the rows are the matching journal indexes, selected through the journal's indexes on a pooled
+ * thread when the filter changes and then extended incrementally as events arrive.
+ */
+public class EventTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Timestamp", "Event Type", "Trigger", "Matched Rule", "File Path"};
+
+    private final EventJournal journal;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    // Journal index of the first row, or of the first event considered when filtering
+    private long first;
+    private int count;
+
+    // Requested filter, and the one the current rows were selected with
+    private EventFilter filter = EventFilter.ALL;
+    private EventFilter viewFilter = EventFilter.ALL;
+    // Incremented per filter change, so that a stale selection is not installed
+    private int filterGeneration;
+    // Filtered rows: journal index = base + rows[i]
+    private long base;
+    private int[] rows = new int[0];
+    // Events before this index have been run through the filter
+    private long filteredTo;
+
+    public EventTableModel(EventJournal journal) {
+        this.journal = journal;
+        this.first = journal.getFirstIndex();
+    }
+
+    /**
+     * Picks up appended events and drops rotated ones, with at most one deletion and one insertion notification.
+     *
+     * @return whether rows were added
+     */
+    public boolean refresh() {
+        if (!viewFilter.isEmpty()) {
+            return refreshFiltered();
+        }
+        long journalFirst = journal.getFirstIndex();
+        if (journalFirst > first) {
+            int dropped = (int) Math.min(journalFirst - first, count);
+            first = journalFirst;
+            count -= dropped;
+            if (dropped > 0) {
+                fireTableRowsDeleted(0, dropped - 1);
+            }
+        }
+        int added = (int) (journal.size() - (first + count));
+        if (added <= 0) {
+            return false;
+        }
+        count += added;
+        fireTableRowsInserted(count - added, count - 1);
+        return true;
+    }
+
+    private boolean refreshFiltered() {
+        long journalFirst = journal.getFirstIndex();
+        if (count > 0 && base + rows[0] < journalFirst) {
+            int dropped = 0;
+            while (dropped < count && base + rows[dropped] < journalFirst) {
+                dropped++;
+            }
+            // Rebase so that offsets stay small however long the session runs
+            int shift = (int) (journalFirst - base);
+            for (int i = dropped; i < count; i++) {
+                rows[i - dropped] = rows[i] - shift;
+            }
+            base = journalFirst;
+            count -= dropped;
+            fireTableRowsDeleted(0, dropped - 1);
+        }
+        long end = journal.size();
+        if (end <= filteredTo) {
+            return false;
+        }
+        int[] added = journal.select(viewFilter, Math.max(filteredTo, journalFirst), end);
+        long from = Math.max(filteredTo, journalFirst);
+        filteredTo = end;
+        if (added.length == 0) {
+            return false;
+        }
+        if (count == 0) {
+            base = from;
+        }
+        int offset = (int) (from - base);
+        if (count + added.length > rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(count + added.length, rows.length * 2));
+        }
+        for (int i = 0; i < added.length; i++) {
+            rows[count + i] = offset + added[i];
+        }
+        count += added.length;
+        fireTableRowsInserted(count - added.length, count - 1);
+        return true;
+    }
+
+    /**
+     * Shows only the events accepted by the filter. The selection runs off the EDT; until it is installed
+     * the table keeps its current rows.
+     */
+    public void setFilter(@NotNull EventFilter newFilter) {
+        int generation = ++filterGeneration;
+        filter = newFilter;
+        if (newFilter.isEmpty()) {
+            viewFilter = newFilter;
+            rows = new int[0];
+            long journalFirst = journal.getFirstIndex();
+            first = Math.max(first, journalFirst);
+            count = (int) (journal.size() - first);
+            fireTableDataChanged();
+            return;
+        }
+        long from = Math.max(first, journal.getFirstIndex());
+        long to = journal.size();
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            int[] selected = journal.select(newFilter, from, to);
+            SwingUtilities.invokeLater(() -> {
+                if (generation != filterGeneration) {
+                    return;
+                }
+                viewFilter = newFilter;
+                base = from;
+                rows = selected;
+                count = selected.length;
+                filteredTo = to;
+                fireTableDataChanged();
+            });
+        });
+    }
+
+    @NotNull
+    public EventFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Hides the rows shown so far; the journal keeps them.
+     */
+    public void clear() {
+        first = journal.size();
+        count = 0;
+        base = first;
+        filteredTo = Math.max(filteredTo, first);
+        fireTableDataChanged();
+        if (filter != viewFilter) {
+            // Restart the pending selection so it does not bring back cleared rows
+            setFilter(filter);
+        }
+    }
+
+    /**
+     * @return the journal index of a row
+     */
+    public long getJournalIndex(int row) {
+        return viewFilter.isEmpty() ? first + row : base + rows[row];
+    }
+
+    @Override
+    public int getRowCount() {
+        return count;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        if (column == 2) { //Trigger
+            return Boolean.class;
+        }
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        EventRecord record = journal.get(getJournalIndex(row));
+        if (record == null) {
+            // Rotated out since the last refresh
+            return column == 2 ? Boolean.FALSE : "";
+        }
+        switch (column) {
+            case 0:
+                return dateFormat.format(new Date(record.getTimestamp()));
+            case 1:
+                return record.getEventType();
+            case 2:
+                return record.isTrigger();
+            case 3:
+                return record.getMatchedRule();
+            default:
+                return record.getFilePath();
+        }
+    }
+}
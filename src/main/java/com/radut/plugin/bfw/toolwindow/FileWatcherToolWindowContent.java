@@ -1,40 +1,58 @@
 package com.radut.plugin.bfw.toolwindow;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
+import com.radut.plugin.bfw.FileWatcherService;
+import com.radut.plugin.bfw.log.EventFilter;
+import com.radut.plugin.bfw.log.EventJournal;
+import com.radut.plugin.bfw.log.StringTable;
+import com.intellij.ui.components.JBCheckBox;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextField;
 import com.intellij.ui.table.JBTable;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
 import java.awt.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class FileWatcherToolWindowContent {
+public class FileWatcherToolWindowContent implements Disposable {
     private final JPanel contentPanel = new JPanel(new BorderLayout());
-    private final DefaultTableModel eventsTableModel;
+    private final EventTableModel eventsTableModel;
     private final JBTable eventsTable;
-    private static final int MAX_ROWS = 1_000;
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final JBLabel statusLabel = new JBLabel();
+    private final Timer statusTimer;
+    private final Timer flushTimer;
+    // Set while the flush timer runs or is about to be started; it only runs while events arrive
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private final EventJournal journal;
+    private final Timer filterTimer;
+    private static final int STATUS_REFRESH_MS = 1_000;
+    // At most one table update per frame, however fast events arrive
+    private static final int FLUSH_INTERVAL_MS = 50;
+    // Typing pause before the filter is applied
+    private static final int FILTER_DELAY_MS = 200;
+    private static final String ALL_EVENTS = "All events";
+    private static final String TRIGGERED = "Triggered";
+    private static final String IGNORED = "Ignored";
+    private static final String ALL_TYPES = "All types";
+
+    private final JComboBox<String> triggerCombo = new JComboBox<>(new String[]{ALL_EVENTS, TRIGGERED, IGNORED});
+    private final JComboBox<String> typeCombo = new JComboBox<>(new String[]{ALL_TYPES});
+    private final JBTextField ruleField = new JBTextField(12);
+    private final JBTextField pathField = new JBTextField(20);
+    private final JBCheckBox pathPrefixCheckBox = new JBCheckBox("Prefix");
 
     public FileWatcherToolWindowContent(Project project) {
+        FileWatcherService watcherService = project.getService(FileWatcherService.class);
 
-        // Create single table model for all events
-        eventsTableModel = new DefaultTableModel(new String[]{"Timestamp", "Event Type", "Trigger", "Matched Rule", "File Path"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-
-            @Override
-            public Class<?> getColumnClass(int column) {
-                if (column == 2) { //Trigger
-                    return Boolean.class;
-                }
-                return String.class;
-            }
-        };
+        // Create single table model for all events, reading from the service's journal
+        journal = watcherService.getEventJournal();
+        eventsTableModel = new EventTableModel(journal);
 
         eventsTable = new JBTable(eventsTableModel);
         eventsTable.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
@@ -62,8 +80,71 @@ public class FileWatcherToolWindowContent {
         buttonPanel.add(clearButton);
         headerPanel.add(buttonPanel, BorderLayout.EAST);
 
+        // Filter controls; the selection itself runs on a pooled thread through the journal's indexes
+        filterTimer = new Timer(FILTER_DELAY_MS, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        triggerCombo.addActionListener(e -> applyFilter());
+        typeCombo.addActionListener(e -> applyFilter());
+        typeCombo.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                updateEventTypes(watcherService.getEventJournal().getTypes());
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+            }
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
+        DocumentListener textListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        };
+        ruleField.getDocument().addDocumentListener(textListener);
+        pathField.getDocument().addDocumentListener(textListener);
+        pathPrefixCheckBox.addActionListener(e -> applyFilter());
+        ruleField.setToolTipText("Part of the matched rule");
+        pathField.setToolTipText("Part of the file path, or its beginning when Prefix is selected");
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        filterPanel.add(triggerCombo);
+        filterPanel.add(typeCombo);
+        filterPanel.add(new JBLabel("Rule:"));
+        filterPanel.add(ruleField);
+        filterPanel.add(new JBLabel("Path:"));
+        filterPanel.add(pathField);
+        filterPanel.add(pathPrefixCheckBox);
+        headerPanel.add(filterPanel, BorderLayout.SOUTH);
+
         contentPanel.add(headerPanel, BorderLayout.NORTH);
         contentPanel.add(new JBScrollPane(eventsTable), BorderLayout.CENTER);
+        contentPanel.add(statusLabel, BorderLayout.SOUTH);
+
+        // Watcher metrics are cheap to read, so poll them instead of pushing updates from the watch thread
+        statusTimer = new Timer(STATUS_REFRESH_MS, e -> statusLabel.setText(watcherService.getMetrics().summary()));
+        statusTimer.start();
+        flushTimer = new Timer(FLUSH_INTERVAL_MS, e -> flushEvents());
+        journal.setAppendListener(() -> {
+            if (flushPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(flushTimer::start);
+            }
+        });
+        flushEvents();
     }
 
     public JPanel getContentPanel() {
@@ -71,26 +152,58 @@ public class FileWatcherToolWindowContent {
     }
 
 
-    public void addEvent(boolean isTrigger, String eventType, String matchedRule, String filePath) {
-        SwingUtilities.invokeLater(() -> {
-            String timestamp = dateFormat.format(new Date());
-            // Add row at the end (bottom) for newest events
-            eventsTableModel.addRow(new Object[]{timestamp, eventType, isTrigger, matchedRule, filePath});
-
-            // Limit rows to prevent memory issues - remove from the top (oldest)
-            while (eventsTableModel.getRowCount() > MAX_ROWS) {
-                eventsTableModel.removeRow(0);
+    private void flushEvents() {
+        // Add rows at the end (bottom) for newest events; rotated ones fall off the top
+        if (!eventsTableModel.refresh()) {
+            // Idle until the journal reports the next append
+            flushTimer.stop();
+            flushPending.set(false);
+            // An append between the refresh and the reset found the flag still set and did not restart us
+            if (!eventsTableModel.refresh()) {
+                return;
             }
+            if (flushPending.compareAndSet(false, true)) {
+                flushTimer.start();
+            }
+        }
 
-            // Scroll to the last row (most recent event at bottom)
-            scrollToBottom();
-        });
+        // Scroll to the last row (most recent event at bottom)
+        scrollToBottom();
     }
 
     public void clear() {
-        SwingUtilities.invokeLater(() -> {
-            eventsTableModel.setRowCount(0);
-        });
+        eventsTableModel.clear();
+    }
+
+    private void applyFilter() {
+        filterTimer.stop();
+        Object trigger = triggerCombo.getSelectedItem();
+        Object type = typeCombo.getSelectedItem();
+        EventFilter filter = new EventFilter(
+                TRIGGERED.equals(trigger) ? Boolean.TRUE : IGNORED.equals(trigger) ? Boolean.FALSE : null,
+                type == null || ALL_TYPES.equals(type) ? null : type.toString(),
+                ruleField.getText().trim(),
+                pathField.getText().trim(),
+                pathPrefixCheckBox.isSelected());
+        eventsTableModel.setFilter(filter);
+    }
+
+    private void updateEventTypes(StringTable types) {
+        // Types are only ever added, so new ones are appended
+        for (int id = typeCombo.getItemCount() - 1; id < types.size(); id++) {
+            String type = types.get(id);
+            if (type != null) {
+                typeCombo.addItem(type);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        statusTimer.stop();
+        journal.setAppendListener(null);
+        flushTimer.stop();
+        filterTimer.stop();
     }
 
     private void scrollToBottom() {
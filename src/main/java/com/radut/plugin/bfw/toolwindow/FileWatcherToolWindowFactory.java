@@ -7,6 +7,7 @@ import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import com.radut.plugin.bfw.FileWatcherService;
 import org.jetbrains.annotations.NotNull;
 
 public class FileWatcherToolWindowFactory implements ToolWindowFactory, DumbAware {
@@ -18,11 +19,17 @@ public class FileWatcherToolWindowFactory implements ToolWindowFactory, DumbAwar
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         FileWatcherToolWindowContent toolWindowContent = new FileWatcherToolWindowContent(project);
         ContentFactory contentFactory = ContentFactory.getInstance();
-        Content content = contentFactory.createContent(toolWindowContent.getContentPanel(), "", false);
+        Content content = contentFactory.createContent(toolWindowContent.getContentPanel(), "Events", false);
 
         // Store the content object as user data so we can access it later
         content.putUserData(TOOL_WINDOW_CONTENT_KEY, toolWindowContent);
+        content.setDisposer(toolWindowContent);
 
         toolWindow.getContentManager().addContent(content);
+
+        StatsPanel statsPanel = new StatsPanel(project.getService(FileWatcherService.class).getMetrics());
+        Content statsContent = contentFactory.createContent(statsPanel.getContentPanel(), "Stats", false);
+        statsContent.setDisposer(statsPanel);
+        toolWindow.getContentManager().addContent(statsContent);
     }
 }
@@ -0,0 +1,137 @@
+package com.radut.plugin.bfw.toolwindow;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import com.radut.plugin.bfw.metrics.LatencyHistogram;
+import com.radut.plugin.bfw.metrics.WatcherMetrics;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Stats" tab: the watcher pipeline metrics, from raw events to finished builds, polled once a second.
+ */
+public class StatsPanel implements Disposable {
+    private static final int REFRESH_MS = 1_000;
+    private static final int MAX_SUBTREE_ROWS = 20;
+
+    private final JPanel contentPanel = new JPanel(new BorderLayout());
+    private final WatcherMetrics metrics;
+    private final DefaultTableModel tableModel = new DefaultTableModel(new Object[]{"Metric", "Value"}, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final Timer refreshTimer;
+
+    public StatsPanel(WatcherMetrics metrics) {
+        this.metrics = metrics;
+        JBTable table = new JBTable(tableModel);
+        table.getColumnModel().getColumn(0).setPreferredWidth(250);
+        table.getColumnModel().getColumn(0).setMaxWidth(350);
+        contentPanel.add(new JBScrollPane(table), BorderLayout.CENTER);
+
+        refresh();
+        refreshTimer = new Timer(REFRESH_MS, e -> refresh());
+        refreshTimer.start();
+    }
+
+    public JPanel getContentPanel() {
+        return contentPanel;
+    }
+
+    private void refresh() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(row("Watched directories", metrics.getWatchedDirectories()));
+        rows.add(row("Unwatched after deletion", metrics.getPrunedDirectories()));
+        if (metrics.getMaxUserWatches() >= 0) {
+            rows.add(row("inotify watches", metrics.getUsedUserWatches() + " of " + metrics.getMaxUserWatches()
+                    + " in use when opened, limit for this project " + metrics.getWatchLimit()));
+        }
+        if (metrics.getPolledDirectories() > 0 || metrics.getPolls() > 0) {
+            rows.add(row("Polled directories", metrics.getPolledDirectories() + " (" + metrics.getPolls() + " polls, "
+                    + metrics.getPolledChanges() + " changes found)"));
+        }
+        Map<String, Integer> unwatched = metrics.getUnwatchedSubtrees();
+        int subtrees = 0;
+        for (Map.Entry<String, Integer> subtree : unwatched.entrySet()) {
+            if (++subtrees > MAX_SUBTREE_ROWS) {
+                rows.add(row("Unwatched: ...", (unwatched.size() - MAX_SUBTREE_ROWS) + " more subtrees"));
+                break;
+            }
+            rows.add(row("Unwatched: " + subtree.getKey(), subtree.getValue() + " dirs polled"));
+        }
+        if (metrics.getLastReconcileMillis() >= 0) {
+            rows.add(row("Watch set reconciles", metrics.getReconciles() + " (last +" + metrics.getLastReconcileAdded() + "/-"
+                    + metrics.getLastReconcileRemoved() + " dirs in " + metrics.getLastReconcileMillis() + " ms)"));
+        }
+        rows.add(row("Raw events (total)", metrics.getRawEvents()));
+        rows.add(row("Raw events / second", metrics.getRawEventsPerSecond()));
+        rows.add(row("Coalesced events", metrics.getCoalescedEvents()));
+        rows.add(row("Dropped events", metrics.getDroppedEvents()));
+        rows.add(row("Git-ignored events", metrics.getGitIgnoredEvents()));
+        rows.add(row("Classified events", metrics.getClassifiedEvents()));
+        rows.add(row("Triggering / ignored", metrics.getTriggeredEvents() + " / " + metrics.getIgnoredEvents()));
+        rows.add(row("Classification", micros(metrics.getClassificationNanos())));
+        rows.add(row("Debounce wait", millis(metrics.getDebounceWaitNanos())));
+        rows.add(row("Refresh / synchronize", millis(metrics.getSyncNanos())));
+        rows.add(row("Build", millis(metrics.getBuildNanos())));
+        rows.add(row("Change to build finished", millis(metrics.getEndToEndNanos())));
+        rows.add(row("Overflows", metrics.getOverflows()));
+        rows.add(row("Change storms", metrics.getStorms()));
+        for (int shard = 0; shard < metrics.getShardCount(); shard++) {
+            rows.add(row("Shard " + shard, metrics.getShardWatches(shard) + " dirs, " + metrics.getShardEvents(shard) + " events, queued "
+                    + metrics.getShardQueuedEvents(shard) + " (max " + metrics.getShardMaxQueuedEvents(shard) + ")"));
+        }
+        for (Map.Entry<String, Long> hit : metrics.getRuleHits().entrySet()) {
+            rows.add(row("Rule: " + hit.getKey(), hit.getValue()));
+        }
+
+        // Update in place so the selection and scroll position survive the refresh
+        if (tableModel.getRowCount() != rows.size()) {
+            tableModel.setRowCount(rows.size());
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            for (int column = 0; column < 2; column++) {
+                if (!rows.get(i)[column].equals(tableModel.getValueAt(i, column))) {
+                    tableModel.setValueAt(rows.get(i)[column], i, column);
+                }
+            }
+        }
+    }
+
+    private static String[] row(String name, Object value) {
+        return new String[]{name, String.valueOf(value)};
+    }
+
+    private static String micros(LatencyHistogram histogram) {
+        return format(histogram, TimeUnit.MICROSECONDS.toNanos(1), "us");
+    }
+
+    private static String millis(LatencyHistogram histogram) {
+        return format(histogram, TimeUnit.MILLISECONDS.toNanos(1), "ms");
+    }
+
+    private static String format(LatencyHistogram histogram, long nanosPerUnit, String unit) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return "-";
+        }
+        return "p50 " + histogram.getValueAtPercentile(50) / nanosPerUnit
+                + " / p99 " + histogram.getValueAtPercentile(99) / nanosPerUnit
+                + " / max " + histogram.getMax() / nanosPerUnit + " " + unit
+                + " (" + count + " samples)";
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+    }
+}
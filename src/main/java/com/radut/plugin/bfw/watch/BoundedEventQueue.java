@@ -0,0 +1,87 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free hand-off of raw events from the watch thread(s) to a single consumer, which is told about
+ * every offer.
+ * When the queue is full events are dropped and the next drain starts with an overflow event instead.
+ */
+public final class BoundedEventQueue {
+    private final ConcurrentLinkedQueue<FileEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean lostEvents = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+    private final int capacity;
+    private volatile Runnable listener;
+
+    public BoundedEventQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public boolean offer(@NotNull FileEvent event) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            lostEvents.set(true);
+            notifyListener();
+            return false;
+        }
+        queue.offer(event);
+        notifyListener();
+        return true;
+    }
+
+    /**
+     * Moves every queued event to the list, preceded by a global overflow event if anything was dropped.
+     *
+     * @return the number of events added
+     */
+    public int drainTo(@NotNull List<FileEvent> target) {
+        int count = 0;
+        if (lostEvents.getAndSet(false)) {
+            target.add(FileEvent.overflow(null));
+            count++;
+        }
+        FileEvent event;
+        while ((event = queue.poll()) != null) {
+            size.decrementAndGet();
+            target.add(event);
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0 && !lostEvents.get();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @param listener called on the offering thread after every offer, e.g. to schedule the consumer; must be cheap
+     */
+    public void setListener(@Nullable Runnable listener) {
+        this.listener = listener;
+    }
+
+    private void notifyListener() {
+        Runnable current = listener;
+        if (current != null) {
+            current.run();
+        }
+    }
+}
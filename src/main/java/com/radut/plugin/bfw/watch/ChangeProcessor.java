@@ -0,0 +1,416 @@
+package com.radut.plugin.bfw.watch;
+
+import com.radut.plugin.bfw.metrics.WatcherMetrics;
+import com.radut.plugin.bfw.rules.FileClassifier;
+import com.radut.plugin.bfw.rules.GitIgnoreMatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The classifier of one project: drains the raw events queued by the watch thread, detects change storms,
+ * recovers overflows from the directory snapshots, coalesces, classifies each change and keeps the watched
+ * directories and their snapshots in step with the tree. Everything that needs the IDE (settings, logging,
+ * registration policy, reloading) goes through the {@link Host}, so the churn harness runs this same code headless.
+ * <p>
+ * Batches run as tasks on an executor that must not run two of them at once (a single thread, or a bounded view of
+ * a pool): an idle project holds no thread. A task is scheduled when events are queued, one coalesce window later so
+ * that the rest of a burst arrives first, and while a storm lasts, to notice when it has calmed down.
+ */
+public final class ChangeProcessor {
+    private final BoundedEventQueue eventQueue;
+    private final DirectorySnapshots snapshots;
+    private final ContentFingerprints fingerprints;
+    private final StormDetector stormDetector;
+    private final WatcherMetrics metrics;
+    private final long coalesceWindowNanos;
+    private final Host host;
+    private final List<FileEvent> rawEvents = new ArrayList<>();
+    // Set while a task is scheduled or running; the next one is scheduled when it finishes
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile ScheduledExecutorService executor;
+    private volatile ScheduledFuture<?> pending;
+    private volatile boolean running = true;
+
+    /**
+     * Callbacks into the owner of the watcher. Called from one batch at a time.
+     */
+    public interface Host {
+        /**
+         * @return the filters and roots to classify the next batch with
+         */
+        @NotNull
+        FileClassifier createClassifier();
+
+        int getStormThreshold();
+
+        boolean isSuppressUnchangedContent();
+
+        /**
+         * @return git's own directory, whose events announce checkouts instead of being classified
+         */
+        @Nullable
+        Path getGitDir();
+
+        /**
+         * @return whether git ignores the path of the event, so that it can be dropped before it costs anything more.
+         * May read .gitignore files, which is why it runs here and not on the watch thread
+         */
+        boolean isGitIgnored(@NotNull FileEvent event);
+
+        /**
+         * @return whether the directory is watched or polled, i.e. has to be unregistered when it disappears
+         */
+        boolean isRegistered(@NotNull Path dir);
+
+        boolean isWatched(@NotNull Path dir);
+
+        void changeDetected(@NotNull FileEvent event, @NotNull FileClassifier.Result result);
+
+        void changeIgnored(@NotNull FileEvent event, @NotNull FileClassifier.Result result);
+
+        /**
+         * Events were lost and could not be reconstructed from the snapshots; only a full synchronize covers them.
+         *
+         * @param dir the directory that overflowed, or null for the whole backend
+         */
+        void overflowLost(@Nullable Path dir);
+
+        void overflowRecovered(@Nullable Path dir, int events, long nanos);
+
+        void gitIgnoreChanged(@NotNull Path dir);
+
+        /**
+         * Directories that disappeared (to unregister with everything below them) and appeared (to register)
+         * during the batch. The removed ones come first: a directory moved within the project is in both.
+         */
+        void directoriesChanged(@NotNull Set<Path> removed, @NotNull List<Path> created);
+
+        void batchProcessed(int relevantChanges, boolean overflow);
+
+        void stormStarted(boolean headMoved);
+
+        /**
+         * Nothing was classified during the storm; the host has to resynchronize the tree.
+         */
+        void stormEnded(@NotNull StormDetector.Storm storm);
+
+        /**
+         * A batch could not be processed; what it held is lost unless the host synchronizes everything.
+         */
+        void batchFailed(@NotNull Exception e);
+    }
+
+    public ChangeProcessor(@NotNull BoundedEventQueue eventQueue, @NotNull DirectorySnapshots snapshots,
+                           @NotNull ContentFingerprints fingerprints, @NotNull StormDetector stormDetector,
+                           @NotNull WatcherMetrics metrics, long coalesceWindowMs, @NotNull Host host) {
+        this.eventQueue = eventQueue;
+        this.snapshots = snapshots;
+        this.fingerprints = fingerprints;
+        this.stormDetector = stormDetector;
+        this.metrics = metrics;
+        this.coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMs);
+        this.host = host;
+    }
+
+    /**
+     * Processes the queued events, and those offered later, on the executor until {@link #stop} is called.
+     */
+    public void start(@NotNull ScheduledExecutorService executor) {
+        this.executor = executor;
+        eventQueue.setListener(this::schedule);
+        if (!eventQueue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Cancels the batch that has not started yet; one that is running finishes.
+     */
+    public void stop() {
+        running = false;
+        eventQueue.setListener(null);
+        ScheduledFuture<?> task = pending;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void schedule() {
+        // Give the rest of a burst (e.g. a save via temp file) time to arrive before coalescing
+        schedule(stormDetector.isInStorm() ? 0 : coalesceWindowNanos);
+    }
+
+    private void schedule(long delayNanos) {
+        ScheduledExecutorService target = executor;
+        if (!running || target == null || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            pending = target.schedule(this::runBatch, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down together with the project
+            scheduled.set(false);
+        }
+    }
+
+    private void runBatch() {
+        try {
+            if (running) {
+                processPending();
+            }
+        } catch (Exception e) {
+            // One bad batch must not stop the watcher
+            host.batchFailed(e);
+        } finally {
+            rawEvents.clear();
+            scheduled.set(false);
+        }
+        // Events offered while the batch ran found it still scheduled
+        if (!eventQueue.isEmpty()) {
+            schedule();
+        } else if (stormDetector.isInStorm()) {
+            schedule(stormDetector.getQuiescenceNanos());
+        }
+    }
+
+    private void processPending() {
+        if (stormDetector.shouldEnd(System.nanoTime())) {
+            endStorm();
+        }
+        if (eventQueue.isEmpty()) {
+            return;
+        }
+
+        eventQueue.drainTo(rawEvents);
+        boolean headMoved = removeGitEvents(rawEvents);
+        int ignored = rawEvents.size();
+        rawEvents.removeIf(host::isGitIgnored);
+        ignored -= rawEvents.size();
+        if (ignored > 0) {
+            metrics.recordGitIgnoredEvents(ignored);
+        }
+        boolean wasInStorm = stormDetector.isInStorm();
+        stormDetector.setThreshold(host.getStormThreshold());
+        if (stormDetector.record(rawEvents.size(), headMoved, System.nanoTime())) {
+            if (!wasInStorm) {
+                // The storm's events are discarded, so no hash can be trusted afterwards
+                fingerprints.clear();
+                host.stormStarted(headMoved);
+            }
+            // Nothing is classified or logged until the storm is over; it ends with a full synchronize
+            return;
+        }
+        List<FileEvent> changes = EventCoalescer.coalesce(recoverOverflows(rawEvents));
+        metrics.recordCoalesced(rawEvents.size(), changes.size(), eventQueue.getDroppedCount());
+        processBatch(changes);
+    }
+
+    /**
+     * Removes the events reported for the .git directory.
+     *
+     * @return whether one of them rewrote HEAD or ORIG_HEAD, i.e. git is about to change the work tree
+     */
+    private boolean removeGitEvents(List<FileEvent> events) {
+        Path dir = host.getGitDir();
+        if (dir == null) {
+            return false;
+        }
+        boolean markerChanged = false;
+        Iterator<FileEvent> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            FileEvent event = iterator.next();
+            if (!dir.equals(event.getDir())) {
+                continue;
+            }
+            iterator.remove();
+            Path fileName = event.getPath() != null ? event.getPath().getFileName() : null;
+            if (fileName != null && (fileName.toString().equals("HEAD") || fileName.toString().equals("ORIG_HEAD"))) {
+                markerChanged = true;
+            }
+        }
+        return markerChanged;
+    }
+
+    /**
+     * Replaces overflow events with the changes found by rescanning the affected directories.
+     * Overflows that cannot be reconstructed are kept and lead to a full synchronize.
+     */
+    private List<FileEvent> recoverOverflows(List<FileEvent> events) {
+        if (events.stream().noneMatch(event -> event.getKind() == FileEvent.Kind.OVERFLOW)) {
+            return events;
+        }
+        // Rescans only see listings, not content rewritten in between: the stored hashes may be stale
+        fingerprints.clear();
+        List<FileEvent> result = new ArrayList<>(events.size());
+        boolean rescannedAll = false;
+        for (FileEvent event : events) {
+            if (event.getKind() != FileEvent.Kind.OVERFLOW) {
+                result.add(event);
+                continue;
+            }
+            metrics.recordOverflow();
+            if (rescannedAll) {
+                continue;
+            }
+            long start = System.nanoTime();
+            List<FileEvent> recovered;
+            if (event.getDir() == null) {
+                // The whole backend overflowed: every directory may have lost events
+                recovered = snapshots.rescanAll();
+                rescannedAll = true;
+            } else {
+                recovered = snapshots.rescan(event.getDir());
+            }
+            if (recovered == null) {
+                result.add(event);
+                continue;
+            }
+            metrics.recordRecoveredEvents(recovered.size());
+            host.overflowRecovered(event.getDir(), recovered.size(), System.nanoTime() - start);
+            result.addAll(recovered);
+        }
+        return result;
+    }
+
+    private void endStorm() {
+        StormDetector.Storm storm = stormDetector.end(System.nanoTime());
+        if (storm.getEvents() > 0) {
+            metrics.recordStorm(storm.getEvents(), storm.getDurationMillis());
+        }
+        host.stormEnded(storm);
+    }
+
+    private void processBatch(List<FileEvent> events) {
+        boolean overflow = false;
+        int relevantChanges = 0;
+        int eventCount = 0;
+        List<Path> newDirectories = new ArrayList<>();
+        Set<Path> removedDirectories = new HashSet<>();
+        Set<Path> gitIgnoreDirectories = new HashSet<>();
+        Set<Path> changedDirectories = new HashSet<>();
+        boolean suppressUnchanged = host.isSuppressUnchangedContent();
+        FileClassifier classifier = host.createClassifier();
+
+        for (FileEvent event : events) {
+            FileEvent.Kind kind = event.getKind();
+
+            if (kind == FileEvent.Kind.OVERFLOW) {
+                // Could not be reconstructed from the snapshots; the next reload synchronizes everything
+                host.overflowLost(event.getDir());
+                overflow = true;
+                continue;
+            }
+            eventCount++;
+
+            Path fullPath = event.getPath();
+            if (event.getDir() != null) {
+                changedDirectories.add(event.getDir());
+            }
+            if (GitIgnoreMatcher.isGitIgnoreFile(fullPath)) {
+                gitIgnoreDirectories.add(fullPath.getParent());
+            }
+            if (event.getPreviousPath() != null && GitIgnoreMatcher.isGitIgnoreFile(event.getPreviousPath())) {
+                gitIgnoreDirectories.add(event.getPreviousPath().getParent());
+            }
+            if (kind == FileEvent.Kind.DELETE) {
+                if (host.isRegistered(fullPath)) {
+                    removedDirectories.add(fullPath);
+                }
+                snapshots.remove(fullPath);
+            } else if (event.getPreviousPath() != null) {
+                if (host.isRegistered(event.getPreviousPath())) {
+                    removedDirectories.add(event.getPreviousPath());
+                }
+                snapshots.remove(event.getPreviousPath());
+                if (event.getPreviousPath().getParent() != null) {
+                    changedDirectories.add(event.getPreviousPath().getParent());
+                }
+            }
+
+            // Check if this file should trigger a reload
+            long classifyStart = System.nanoTime();
+            FileClassifier.Result result = classifier.classify(fullPath.toString());
+            if (!result.isRelevant() && event.getPreviousPath() != null) {
+                // A move out of a watched category matters as much as a move into one, and a name-paired
+                // rename may join two unrelated files: either end makes the event relevant
+                FileClassifier.Result previousResult = classifier.classify(event.getPreviousPath().toString());
+                if (previousResult.isRelevant()) {
+                    result = previousResult;
+                }
+            }
+            if (result.isRelevant() && suppressUnchanged) {
+                result = checkContentChanged(event, result);
+            }
+            metrics.recordClassification(result.isRelevant(), result.describe(), System.nanoTime() - classifyStart);
+            if (result.isRelevant()) {
+                host.changeDetected(event, result);
+                relevantChanges++;
+            } else {
+                host.changeIgnored(event, result);
+            }
+
+            // If a directory was created or moved in, register it for watching once the batch is classified
+            if ((kind == FileEvent.Kind.CREATE || kind == FileEvent.Kind.RENAME) && Files.isDirectory(fullPath)) {
+                newDirectories.add(fullPath);
+            }
+        }
+
+        metrics.recordBatch(eventCount);
+        for (Path dir : gitIgnoreDirectories) {
+            host.gitIgnoreChanged(dir);
+        }
+        if (!removedDirectories.isEmpty() || !newDirectories.isEmpty()) {
+            host.directoriesChanged(removedDirectories, newDirectories);
+        }
+        // Keep the listings current so a later overflow only reports what was really lost
+        for (Path dir : changedDirectories) {
+            if (host.isWatched(dir)) {
+                snapshots.update(dir);
+            }
+        }
+        host.batchProcessed(relevantChanges, overflow);
+    }
+
+    /**
+     * Turns a MODIFY that rewrote identical bytes into an ignored event, and keeps the fingerprints of
+     * created, moved and deleted files up to date.
+     */
+    private FileClassifier.Result checkContentChanged(FileEvent event, FileClassifier.Result result) {
+        Path fullPath = event.getPath();
+        switch (event.getKind()) {
+            case MODIFY:
+                boolean unchanged = fingerprints.isUnchanged(fullPath);
+                metrics.recordFingerprintLookup(unchanged);
+                if (unchanged) {
+                    return new FileClassifier.Result(false, result.getMatchedRule(), "Content unchanged");
+                }
+                break;
+            case CREATE:
+            case RENAME:
+                if (event.getPreviousPath() != null) {
+                    fingerprints.forget(event.getPreviousPath());
+                }
+                fingerprints.record(fullPath);
+                break;
+            case DELETE:
+                fingerprints.forget(fullPath);
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+}
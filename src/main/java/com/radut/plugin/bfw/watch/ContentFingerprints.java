@@ -0,0 +1,170 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers a 64-bit content hash of recently changed files, so that a modification that rewrote the same bytes
+ * (formatters, touch, code generators) can be recognized and ignored. Files above the size limit are never hashed.
+ */
+public final class ContentFingerprints {
+    // Below this size reading into the heap is cheaper than mapping
+    private static final int MAP_THRESHOLD = 64 * 1024;
+    // Mapped files stay locked on Windows until the buffer is collected, which would block the tools writing them
+    private static final boolean CAN_MAP = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private final long maxFileSize;
+    private final int maxEntries;
+    private final Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    public ContentFingerprints(long maxFileSize, int maxEntries) {
+        this.maxFileSize = maxFileSize;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Hashes the file and compares it with the last known hash, which is replaced.
+     *
+     * @return true only if the file had a known hash and its content is identical
+     */
+    public boolean isUnchanged(@NotNull Path file) {
+        Fingerprint current = fingerprint(file);
+        if (current == null) {
+            fingerprints.remove(file);
+            return false;
+        }
+        Fingerprint previous = store(file, current);
+        return current.equals(previous);
+    }
+
+    /**
+     * Records the hash of a new file, so that its first rewrite can already be compared.
+     */
+    public void record(@NotNull Path file) {
+        Fingerprint current = fingerprint(file);
+        if (current != null) {
+            store(file, current);
+        } else {
+            fingerprints.remove(file);
+        }
+    }
+
+    public void forget(@NotNull Path file) {
+        fingerprints.remove(file);
+    }
+
+    /**
+     * Forgets every hash, for when changes went by unseen and a stored hash may no longer be the content the IDE
+     * last loaded: comparing with it could then suppress a real change.
+     */
+    public void clear() {
+        fingerprints.clear();
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+
+    private Fingerprint store(Path file, Fingerprint fingerprint) {
+        if (fingerprints.size() >= maxEntries && !fingerprints.containsKey(file)) {
+            // Crude but bounded: start over rather than track recency
+            fingerprints.clear();
+        }
+        return fingerprints.put(file, fingerprint);
+    }
+
+    private Fingerprint fingerprint(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxFileSize) {
+                return null;
+            }
+            if (CAN_MAP && size >= MAP_THRESHOLD) {
+                try {
+                    return new Fingerprint(size, hash(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)));
+                } catch (InternalError e) {
+                    // Truncated while we read the mapping (SIGBUS): it is being rewritten, so nothing to compare with
+                    return null;
+                }
+            }
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // Read until full or the file turned out shorter
+            }
+            content.flip();
+            return new Fingerprint(content.remaining(), hash(content));
+        } catch (IOException e) {
+            // Deleted, a directory, or not readable
+            return null;
+        }
+    }
+
+    /**
+     * 64-bit hash in the style of xxHash64's tail loop: one multiply-rotate round per 8 bytes.
+     */
+    static long hash(@NotNull ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = data.remaining();
+        long hash = PRIME5 + length;
+        int position = data.position();
+        int limit = data.limit();
+        while (position + 8 <= limit) {
+            long k = data.getLong(position) * PRIME2;
+            k = Long.rotateLeft(k, 31) * PRIME1;
+            hash = Long.rotateLeft(hash ^ k, 27) * PRIME1 + PRIME4;
+            position += 8;
+        }
+        if (position + 4 <= limit) {
+            hash = Long.rotateLeft(hash ^ ((data.getInt(position) & 0xFFFFFFFFL) * PRIME1), 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        while (position < limit) {
+            hash = Long.rotateLeft(hash ^ ((data.get(position) & 0xFFL) * PRIME5), 11) * PRIME1;
+            position++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static final class Fingerprint {
+        private final long size;
+        private final long hash;
+
+        Fingerprint(long size, long hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return size == other.size && hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+    }
+}
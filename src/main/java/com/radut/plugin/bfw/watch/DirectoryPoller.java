@@ -0,0 +1,101 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Detects changes in directories that could not be watched by listing them again and comparing with their
+ * snapshots: created, deleted and renamed entries, and modifications through the size and modification time.
+ * Meant to be run at a low frequency from a single thread; directories can be added and removed concurrently.
+ */
+public final class DirectoryPoller {
+    private final DirectorySnapshots snapshots;
+    private final Consumer<List<FileEvent>> sink;
+    private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param snapshots listings shared with the watcher; the poller replaces those of its directories
+     * @param sink      receives the changes found by a poll, like a batch from a watch backend
+     */
+    public DirectoryPoller(@NotNull DirectorySnapshots snapshots, @NotNull Consumer<List<FileEvent>> sink) {
+        this.snapshots = snapshots;
+        this.sink = sink;
+    }
+
+    /**
+     * Starts polling the directory, which must already have a snapshot.
+     */
+    public void add(@NotNull Path dir) {
+        dirs.add(dir);
+    }
+
+    public boolean remove(@NotNull Path dir) {
+        return dirs.remove(dir);
+    }
+
+    public boolean contains(@NotNull Path dir) {
+        return dirs.contains(dir);
+    }
+
+    public int size() {
+        return dirs.size();
+    }
+
+    public boolean isEmpty() {
+        return dirs.isEmpty();
+    }
+
+    @NotNull
+    public List<Path> getDirectories() {
+        return new ArrayList<>(dirs);
+    }
+
+    /**
+     * Lists every polled directory once and hands the changes to the sink.
+     *
+     * @return the number of changes found
+     */
+    public int poll() {
+        List<FileEvent> events = new ArrayList<>();
+        for (Path dir : dirs) {
+            List<FileEvent> changes = snapshots.rescan(dir);
+            if (changes == null || snapshots.get(dir) == null) {
+                // Deleted (its parent reports it) or forgotten by the watcher
+                dirs.remove(dir);
+            }
+            if (changes != null) {
+                events.addAll(changes);
+            }
+        }
+        if (!events.isEmpty()) {
+            sink.accept(events);
+        }
+        return events.size();
+    }
+
+    /**
+     * @return the topmost polled directories with the number of polled directories at or below each
+     */
+    @NotNull
+    public Map<Path, Integer> getSubtrees() {
+        Map<Path, Integer> subtrees = new HashMap<>();
+        for (Path dir : dirs) {
+            Path top = dir;
+            for (Path parent = dir.getParent(); parent != null; parent = parent.getParent()) {
+                if (dirs.contains(parent)) {
+                    top = parent;
+                }
+            }
+            subtrees.merge(top, 1, Integer::sum);
+        }
+        return subtrees;
+    }
+}
@@ -0,0 +1,260 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listing of every watched directory (entry names, modification times and sizes), kept so that changes lost
+ * in a watcher overflow can be reconstructed by listing the directory again and diffing.
+ */
+public final class DirectorySnapshots {
+    // Size recorded for subdirectories; their own contents are covered by their own snapshot
+    private static final long DIRECTORY = -1;
+
+    private final Map<Path, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    /**
+     * Notified (possibly concurrently) when a stored listing changes.
+     */
+    public interface Listener {
+        /**
+         * @param snapshot the new listing, or null if the directory is no longer tracked
+         */
+        void snapshotChanged(@NotNull Path dir, @Nullable Snapshot snapshot);
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Lists the directory and stores the result, replacing the previous snapshot.
+     *
+     * @return the new listing, or null if the directory could not be listed
+     */
+    @Nullable
+    public Snapshot update(@NotNull Path dir) {
+        Snapshot snapshot = Snapshot.take(dir);
+        if (snapshot != null) {
+            store(dir, snapshot);
+        } else {
+            remove(dir);
+        }
+        return snapshot;
+    }
+
+    public void remove(@NotNull Path dir) {
+        if (snapshots.remove(dir) != null) {
+            notifyListener(dir, null);
+        }
+    }
+
+    @Nullable
+    public Snapshot get(@NotNull Path dir) {
+        return snapshots.get(dir);
+    }
+
+    /**
+     * @return a live, read-only view of all listings
+     */
+    @NotNull
+    public Map<Path, Snapshot> getAll() {
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    private void store(Path dir, Snapshot snapshot) {
+        Snapshot previous = snapshots.put(dir, snapshot);
+        if (previous == null || !previous.sameAs(snapshot)) {
+            notifyListener(dir, snapshot);
+        }
+    }
+
+    private void notifyListener(Path dir, @Nullable Snapshot snapshot) {
+        Listener current = listener;
+        if (current != null) {
+            current.snapshotChanged(dir, snapshot);
+        }
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Lists the directory again and reports what changed since the last snapshot, which is replaced.
+     * Changes may already have been reported by the watcher; reporting them twice is harmless.
+     *
+     * @return the synthesized events, or null if the directory had no snapshot
+     */
+    @Nullable
+    public List<FileEvent> rescan(@NotNull Path dir) {
+        Snapshot previous = snapshots.get(dir);
+        if (previous == null) {
+            return null;
+        }
+        Snapshot current = Snapshot.take(dir);
+        if (current == null) {
+            // The directory itself is gone; its parent reports the deletion
+            remove(dir);
+            current = Snapshot.EMPTY;
+        } else {
+            store(dir, current);
+        }
+        List<FileEvent> events = new ArrayList<>();
+        previous.diff(dir, current, events);
+        return events;
+    }
+
+    /**
+     * Rescans every known directory, for overflows that do not say where events were lost.
+     */
+    @NotNull
+    public List<FileEvent> rescanAll() {
+        List<FileEvent> events = new ArrayList<>();
+        for (Path dir : new ArrayList<>(snapshots.keySet())) {
+            List<FileEvent> changes = rescan(dir);
+            if (changes != null) {
+                events.addAll(changes);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Immutable listing of one directory, sorted by name. Parallel arrays keep it compact.
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new String[0], new long[0], new long[0]);
+
+        private final String[] names;
+        private final long[] modified;
+        private final long[] sizes;
+
+        Snapshot(String[] names, long[] modified, long[] sizes) {
+            this.names = names;
+            this.modified = modified;
+            this.sizes = sizes;
+        }
+
+        @Nullable
+        static Snapshot take(Path dir) {
+            List<Entry> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        entries.add(new Entry(child.getFileName().toString(), attrs.lastModifiedTime().toMillis(),
+                                attrs.isDirectory() ? DIRECTORY : attrs.size()));
+                    } catch (NoSuchFileException e) {
+                        // Deleted while listing
+                    }
+                }
+            } catch (IOException e) {
+                // Gone, replaced by a file, or not readable
+                return null;
+            }
+            Collections.sort(entries);
+            int count = entries.size();
+            String[] names = new String[count];
+            long[] modified = new long[count];
+            long[] sizes = new long[count];
+            for (int i = 0; i < count; i++) {
+                Entry entry = entries.get(i);
+                names[i] = entry.name;
+                modified[i] = entry.modified;
+                sizes[i] = entry.size;
+            }
+            return new Snapshot(names, modified, sizes);
+        }
+
+        public int getEntryCount() {
+            return names.length;
+        }
+
+        public String getName(int index) {
+            return names[index];
+        }
+
+        public long getModified(int index) {
+            return modified[index];
+        }
+
+        /**
+         * @return the file size, or -1 for a subdirectory
+         */
+        public long getSize(int index) {
+            return sizes[index];
+        }
+
+        public int indexOf(String name) {
+            return Arrays.binarySearch(names, name);
+        }
+
+        boolean sameAs(Snapshot other) {
+            return Arrays.equals(names, other.names) && Arrays.equals(modified, other.modified) && Arrays.equals(sizes, other.sizes);
+        }
+
+        /**
+         * Adds the events turning this listing into the other one. Subdirectories are only reported
+         * when they appear or disappear.
+         */
+        public void diff(@NotNull Path dir, @NotNull Snapshot next, @NotNull List<FileEvent> events) {
+            int i = 0;
+            int j = 0;
+            while (i < names.length || j < next.names.length) {
+                int order = i == names.length ? 1 : j == next.names.length ? -1 : names[i].compareTo(next.names[j]);
+                if (order < 0) {
+                    events.add(new FileEvent(FileEvent.Kind.DELETE, dir, dir.resolve(names[i]), 0));
+                    i++;
+                } else if (order > 0) {
+                    events.add(new FileEvent(FileEvent.Kind.CREATE, dir, dir.resolve(next.names[j]), 0));
+                    j++;
+                } else {
+                    boolean wasDirectory = sizes[i] == DIRECTORY;
+                    boolean isDirectory = next.sizes[j] == DIRECTORY;
+                    if (wasDirectory != isDirectory) {
+                        // Replaced by an entry of another type
+                        events.add(new FileEvent(FileEvent.Kind.DELETE, dir, dir.resolve(names[i]), 0));
+                        events.add(new FileEvent(FileEvent.Kind.CREATE, dir, dir.resolve(next.names[j]), 0));
+                    } else if (!isDirectory && (modified[i] != next.modified[j] || sizes[i] != next.sizes[j])) {
+                        events.add(new FileEvent(FileEvent.Kind.MODIFY, dir, dir.resolve(names[i]), 0));
+                    }
+                    i++;
+                    j++;
+                }
+            }
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String name;
+        final long modified;
+        final long size;
+
+        Entry(String name, long modified, long size) {
+            this.name = name;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(@NotNull Entry other) {
+            return name.compareTo(other.name);
+        }
+    }
+}
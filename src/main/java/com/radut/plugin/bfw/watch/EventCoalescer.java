@@ -0,0 +1,139 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds the raw events of one window into at most one change per path:
+ * CREATE+MODIFY is a CREATE, CREATE+DELETE cancels out, DELETE+CREATE is a MODIFY,
+ * and a matching delete/create pair becomes a RENAME. Without inotify cookies the pairing is by file name
+ * only, so a RENAME may join two unrelated files; consumers must treat both of its ends as changed.
+ */
+public final class EventCoalescer {
+
+    private EventCoalescer() {
+    }
+
+    /**
+     * @param events raw events in arrival order
+     * @return the coalesced changes, overflow events first, the rest in order of first appearance
+     */
+    @NotNull
+    public static List<FileEvent> coalesce(@NotNull List<FileEvent> events) {
+        List<FileEvent> result = new ArrayList<>();
+        Map<Path, FileEvent> pending = new LinkedHashMap<>();
+
+        for (FileEvent event : events) {
+            if (event.getKind() == FileEvent.Kind.OVERFLOW) {
+                result.add(event);
+                continue;
+            }
+            Path path = event.getPath();
+            FileEvent previous = pending.get(path);
+            FileEvent merged = previous == null ? event : merge(previous, event);
+            if (merged == null) {
+                pending.remove(path);
+            } else {
+                pending.put(path, merged);
+            }
+        }
+
+        pairRenames(pending);
+        for (FileEvent event : pending.values()) {
+            // Unpaired halves of a move are plain deletes/creates as far as the tree is concerned
+            if (event.getKind() == FileEvent.Kind.MOVED_FROM) {
+                result.add(event.withKind(FileEvent.Kind.DELETE));
+            } else if (event.getKind() == FileEvent.Kind.MOVED_TO) {
+                result.add(event.withKind(FileEvent.Kind.CREATE));
+            } else {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    private static FileEvent merge(FileEvent previous, FileEvent next) {
+        boolean wasCreated = isCreate(previous);
+        boolean wasDeleted = isDelete(previous);
+        if (isDelete(next)) {
+            // Created and removed again within the window: nothing happened as far as the IDE is concerned
+            return wasCreated ? null : next;
+        }
+        if (isCreate(next)) {
+            // Deleted and recreated (save via temp file): the content changed
+            return wasDeleted ? next.withKind(FileEvent.Kind.MODIFY) : previous;
+        }
+        // MODIFY keeps whatever the path already had, except after a delete
+        return wasDeleted ? next : previous;
+    }
+
+    private static void pairRenames(Map<Path, FileEvent> pending) {
+        Map<Integer, FileEvent> movedFromByCookie = new HashMap<>();
+        Map<Path, List<FileEvent>> deletedByName = new HashMap<>();
+        for (FileEvent event : pending.values()) {
+            if (!isDelete(event)) {
+                continue;
+            }
+            if (event.getCookie() != 0) {
+                movedFromByCookie.put(event.getCookie(), event);
+            } else {
+                deletedByName.computeIfAbsent(event.getPath().getFileName(), k -> new ArrayList<>()).add(event);
+            }
+        }
+        if (movedFromByCookie.isEmpty() && deletedByName.isEmpty()) {
+            return;
+        }
+
+        Map<Path, List<FileEvent>> createdByName = new HashMap<>();
+        for (FileEvent event : pending.values()) {
+            if (isCreate(event) && event.getCookie() == 0) {
+                createdByName.computeIfAbsent(event.getPath().getFileName(), k -> new ArrayList<>()).add(event);
+            }
+        }
+
+        Map<Path, FileEvent> renames = new HashMap<>();
+        for (FileEvent event : pending.values()) {
+            if (!isCreate(event)) {
+                continue;
+            }
+            FileEvent from = null;
+            if (event.getCookie() != 0) {
+                from = movedFromByCookie.get(event.getCookie());
+            } else {
+                // Without cookies only an unambiguous pair with the same file name is treated as a move
+                List<FileEvent> deleted = deletedByName.get(event.getPath().getFileName());
+                List<FileEvent> created = createdByName.get(event.getPath().getFileName());
+                if (deleted != null && deleted.size() == 1 && created.size() == 1) {
+                    from = deleted.get(0);
+                }
+            }
+            if (from != null) {
+                renames.put(event.getPath(), FileEvent.rename(from.getPath(), event));
+            }
+        }
+
+        for (FileEvent rename : renames.values()) {
+            pending.remove(rename.getPreviousPath());
+        }
+        for (Map.Entry<Path, FileEvent> entry : pending.entrySet()) {
+            FileEvent rename = renames.get(entry.getKey());
+            if (rename != null) {
+                entry.setValue(rename);
+            }
+        }
+    }
+
+    private static boolean isCreate(FileEvent event) {
+        return event.getKind() == FileEvent.Kind.CREATE || event.getKind() == FileEvent.Kind.MOVED_TO;
+    }
+
+    private static boolean isDelete(FileEvent event) {
+        return event.getKind() == FileEvent.Kind.DELETE || event.getKind() == FileEvent.Kind.MOVED_FROM;
+    }
+}
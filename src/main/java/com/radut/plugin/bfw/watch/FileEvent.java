@@ -0,0 +1,97 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * A raw change reported by a {@link WatchBackend}.
+ */
+public final class FileEvent {
+    public enum Kind {
+        CREATE,
+        MODIFY,
+        DELETE,
+        MOVED_FROM,
+        MOVED_TO,
+        // Produced by coalescing a MOVED_FROM/MOVED_TO (or DELETE/CREATE) pair; path is the new location
+        RENAME,
+        // Events were lost; dir tells which directory, or is null when the whole backend overflowed
+        OVERFLOW
+    }
+
+    private final Kind kind;
+    private final Path dir;
+    private final Path path;
+    private final int cookie;
+    private final Path previousPath;
+
+    public FileEvent(@NotNull Kind kind, @Nullable Path dir, @Nullable Path path, int cookie) {
+        this(kind, dir, path, cookie, null);
+    }
+
+    private FileEvent(@NotNull Kind kind, @Nullable Path dir, @Nullable Path path, int cookie, @Nullable Path previousPath) {
+        this.kind = kind;
+        this.dir = dir;
+        this.path = path;
+        this.cookie = cookie;
+        this.previousPath = previousPath;
+    }
+
+    public static FileEvent rename(@NotNull Path from, @NotNull FileEvent to) {
+        return new FileEvent(Kind.RENAME, to.dir, to.path, to.cookie, from);
+    }
+
+    public FileEvent withKind(@NotNull Kind newKind) {
+        return newKind == kind ? this : new FileEvent(newKind, dir, path, cookie, previousPath);
+    }
+
+    public static FileEvent overflow(@Nullable Path dir) {
+        return new FileEvent(Kind.OVERFLOW, dir, null, 0);
+    }
+
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The watched directory the event was reported for.
+     */
+    @Nullable
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * The full path of the changed entry; null for overflow events.
+     */
+    @Nullable
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Correlates MOVED_FROM/MOVED_TO halves of a rename; 0 when the backend does not provide it.
+     */
+    public int getCookie() {
+        return cookie;
+    }
+
+    /**
+     * The old location of a RENAME event.
+     */
+    @Nullable
+    public Path getPreviousPath() {
+        return previousPath;
+    }
+
+    @Override
+    public String toString() {
+        if (previousPath != null) {
+            return kind + " " + previousPath + " -> " + path;
+        }
+        return kind + " " + (path != null ? path : dir);
+    }
+}
@@ -0,0 +1,296 @@
+package com.radut.plugin.bfw.watch;
+
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Linux backend talking to inotify directly through JNA. Compared to the JDK watch service it keeps no
+ * per-directory key objects, reads with a large buffer, reports queue overflows and move cookies, and
+ * blocks in poll(2) instead of waking up periodically.
+ */
+public class InotifyWatchBackend implements WatchBackend {
+    private static final int IN_NONBLOCK = 0x800;
+    private static final int IN_CLOEXEC = 0x80000;
+
+    private static final int IN_MODIFY = 0x2;
+    private static final int IN_ATTRIB = 0x4;
+    private static final int IN_MOVED_FROM = 0x40;
+    private static final int IN_MOVED_TO = 0x80;
+    private static final int IN_CREATE = 0x100;
+    private static final int IN_DELETE = 0x200;
+    private static final int IN_DELETE_SELF = 0x400;
+    private static final int IN_MOVE_SELF = 0x800;
+    private static final int IN_Q_OVERFLOW = 0x4000;
+    private static final int IN_IGNORED = 0x8000;
+    private static final int IN_ONLYDIR = 0x1000000;
+    private static final int IN_DONT_FOLLOW = 0x2000000;
+    private static final int IN_EXCL_UNLINK = 0x4000000;
+
+    private static final int WATCH_MASK = IN_CREATE | IN_MODIFY | IN_ATTRIB | IN_DELETE | IN_MOVED_FROM | IN_MOVED_TO
+            | IN_DELETE_SELF | IN_MOVE_SELF | IN_ONLYDIR | IN_DONT_FOLLOW | IN_EXCL_UNLINK;
+
+    private static final short POLLIN = 0x1;
+    private static final int POLLFD_SIZE = 8;
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+
+    // The kernel default queue holds 16k events; read as many of them as possible per syscall
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final int EVENT_HEADER_SIZE = 16;
+
+    private interface LibC extends Library {
+        int inotify_init1(int flags);
+
+        int inotify_add_watch(int fd, String path, int mask);
+
+        int inotify_rm_watch(int fd, int wd);
+
+        NativeLong read(int fd, Pointer buffer, NativeLong count);
+
+        NativeLong write(int fd, byte[] buffer, NativeLong count);
+
+        int poll(Pointer fds, NativeLong nfds, int timeout);
+
+        int pipe(int[] fds);
+
+        int close(int fd);
+    }
+
+    private final LibC libc;
+    private final int inotifyFd;
+    private final int wakeReadFd;
+    private final int wakeWriteFd;
+    private final Memory readBuffer = new Memory(READ_BUFFER_SIZE);
+    private final Memory pollFds = new Memory(2 * POLLFD_SIZE);
+    private final Map<Integer, Path> dirsByWatch = new ConcurrentHashMap<>();
+    private final Map<Path, Integer> watchesByDir = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Held by the thread inside take(); close() waits for it before releasing the descriptors
+    private final ReentrantLock takeLock = new ReentrantLock();
+    // Read-held around inotify_add_watch/inotify_rm_watch, write-held by close(): a closed (and possibly reused)
+    // descriptor number is never passed to the kernel
+    private final ReadWriteLock fdLock = new ReentrantReadWriteLock();
+
+    public InotifyWatchBackend() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("inotify is only available on Linux");
+        }
+        libc = Native.load("c", LibC.class);
+        inotifyFd = libc.inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+        if (inotifyFd < 0) {
+            throw new IOException("inotify_init1 failed, errno " + Native.getLastError());
+        }
+        int[] pipe = new int[2];
+        if (libc.pipe(pipe) != 0) {
+            int errno = Native.getLastError();
+            libc.close(inotifyFd);
+            throw new IOException("pipe failed, errno " + errno);
+        }
+        wakeReadFd = pipe[0];
+        wakeWriteFd = pipe[1];
+    }
+
+    public static boolean isSupported() {
+        return System.getProperty("os.name", "").startsWith("Linux");
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "inotify";
+    }
+
+    @Override
+    public void register(@NotNull Path dir) throws IOException {
+        fdLock.readLock().lock();
+        try {
+            if (closed.get()) {
+                throw new ClosedWatchServiceException();
+            }
+            int wd = libc.inotify_add_watch(inotifyFd, dir.toString(), WATCH_MASK);
+            if (wd < 0) {
+                throw new IOException("inotify_add_watch failed for " + dir + ", errno " + Native.getLastError());
+            }
+            // A renamed directory keeps its inode and therefore its wd; forget the old path
+            Path previous = dirsByWatch.put(wd, dir);
+            if (previous != null && !previous.equals(dir)) {
+                watchesByDir.remove(previous, wd);
+            }
+            watchesByDir.put(dir, wd);
+        } finally {
+            fdLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void unregister(@NotNull Path dir) {
+        Integer wd = watchesByDir.remove(dir);
+        if (wd != null) {
+            dirsByWatch.remove(wd);
+            fdLock.readLock().lock();
+            try {
+                if (!closed.get()) {
+                    libc.inotify_rm_watch(inotifyFd, wd);
+                }
+            } finally {
+                fdLock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean isWatched(@NotNull Path dir) {
+        return watchesByDir.containsKey(dir);
+    }
+
+    @Override
+    public int getWatchCount() {
+        return watchesByDir.size();
+    }
+
+    @NotNull
+    @Override
+    public List<FileEvent> take() {
+        takeLock.lock();
+        try {
+            List<FileEvent> events = new ArrayList<>();
+            while (events.isEmpty()) {
+                if (closed.get()) {
+                    throw new ClosedWatchServiceException();
+                }
+                pollFds.setInt(0, inotifyFd);
+                pollFds.setShort(4, POLLIN);
+                pollFds.setShort(6, (short) 0);
+                pollFds.setInt(POLLFD_SIZE, wakeReadFd);
+                pollFds.setShort(POLLFD_SIZE + 4, POLLIN);
+                pollFds.setShort(POLLFD_SIZE + 6, (short) 0);
+                int ready = libc.poll(pollFds, new NativeLong(2), -1);
+                if (ready < 0) {
+                    int errno = Native.getLastError();
+                    if (errno == EINTR) {
+                        continue;
+                    }
+                    throw new IllegalStateException("poll failed, errno " + errno);
+                }
+                if (closed.get()) {
+                    throw new ClosedWatchServiceException();
+                }
+                if ((pollFds.getShort(6) & POLLIN) != 0) {
+                    drain(events);
+                }
+            }
+            return events;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    private void drain(List<FileEvent> events) {
+        while (true) {
+            long read = libc.read(inotifyFd, readBuffer, new NativeLong(READ_BUFFER_SIZE)).longValue();
+            if (read <= 0) {
+                // EAGAIN: queue is empty
+                int errno = read < 0 ? Native.getLastError() : EAGAIN;
+                if (errno == EINTR) {
+                    continue;
+                }
+                return;
+            }
+            parse(readBuffer.getByteBuffer(0, read).order(ByteOrder.nativeOrder()), events);
+        }
+    }
+
+    private void parse(ByteBuffer buffer, List<FileEvent> events) {
+        while (buffer.remaining() >= EVENT_HEADER_SIZE) {
+            int wd = buffer.getInt();
+            int mask = buffer.getInt();
+            int cookie = buffer.getInt();
+            int nameLength = buffer.getInt();
+            String name = readName(buffer, nameLength);
+
+            if ((mask & IN_Q_OVERFLOW) != 0) {
+                events.add(FileEvent.overflow(null));
+                continue;
+            }
+            if ((mask & IN_IGNORED) != 0) {
+                // Watch removed by the kernel (directory deleted or unmounted)
+                Path dir = dirsByWatch.remove(wd);
+                if (dir != null) {
+                    watchesByDir.remove(dir, wd);
+                }
+                continue;
+            }
+
+            Path dir = dirsByWatch.get(wd);
+            if (dir == null || name == null) {
+                // Events about the watched directory itself are reported by its parent
+                continue;
+            }
+            Path fullPath = dir.resolve(name);
+            if ((mask & IN_CREATE) != 0) {
+                events.add(new FileEvent(FileEvent.Kind.CREATE, dir, fullPath, 0));
+            } else if ((mask & IN_DELETE) != 0) {
+                events.add(new FileEvent(FileEvent.Kind.DELETE, dir, fullPath, 0));
+            } else if ((mask & IN_MOVED_FROM) != 0) {
+                events.add(new FileEvent(FileEvent.Kind.MOVED_FROM, dir, fullPath, cookie));
+            } else if ((mask & IN_MOVED_TO) != 0) {
+                events.add(new FileEvent(FileEvent.Kind.MOVED_TO, dir, fullPath, cookie));
+            } else if ((mask & (IN_MODIFY | IN_ATTRIB)) != 0) {
+                events.add(new FileEvent(FileEvent.Kind.MODIFY, dir, fullPath, 0));
+            }
+        }
+    }
+
+    private static String readName(ByteBuffer buffer, int length) {
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        // The name is NUL-padded to the record length
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        libc.write(wakeWriteFd, new byte[]{1}, new NativeLong(1));
+        takeLock.lock();
+        fdLock.writeLock().lock();
+        try {
+            libc.close(inotifyFd);
+            libc.close(wakeReadFd);
+            libc.close(wakeWriteFd);
+        } finally {
+            fdLock.writeLock().unlock();
+            takeLock.unlock();
+        }
+        dirsByWatch.clear();
+        watchesByDir.clear();
+    }
+}
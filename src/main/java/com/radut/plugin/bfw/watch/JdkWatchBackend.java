@@ -0,0 +1,115 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Portable backend on top of the JDK {@link WatchService}, one {@link WatchKey} per directory.
+ */
+public class JdkWatchBackend implements WatchBackend {
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> keysByDir = new ConcurrentHashMap<>();
+
+    public JdkWatchBackend() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "JDK WatchService";
+    }
+
+    @Override
+    public void register(@NotNull Path dir) throws IOException {
+        WatchKey key = dir.register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+        );
+        watchKeys.put(key, dir);
+        keysByDir.put(dir, key);
+    }
+
+    @Override
+    public void unregister(@NotNull Path dir) {
+        WatchKey key = keysByDir.remove(dir);
+        if (key != null) {
+            key.cancel();
+            watchKeys.remove(key);
+        }
+    }
+
+    @Override
+    public boolean isWatched(@NotNull Path dir) {
+        return keysByDir.containsKey(dir);
+    }
+
+    @Override
+    public int getWatchCount() {
+        return watchKeys.size();
+    }
+
+    @NotNull
+    @Override
+    public List<FileEvent> take() throws InterruptedException {
+        List<FileEvent> events = new ArrayList<>();
+        // Blocks without polling; close() wakes us up with ClosedWatchServiceException
+        WatchKey key = watchService.take();
+        // Drain every key that is already signalled so the whole burst is returned as one batch
+        do {
+            collect(key, events);
+            key = watchService.poll();
+        } while (key != null);
+        return events;
+    }
+
+    private void collect(WatchKey key, List<FileEvent> events) {
+        Path dir = watchKeys.get(key);
+        if (dir == null) {
+            key.reset();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                events.add(FileEvent.overflow(dir));
+                continue;
+            }
+
+            Path fullPath = dir.resolve((Path) event.context());
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                events.add(new FileEvent(FileEvent.Kind.CREATE, dir, fullPath, 0));
+            } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                events.add(new FileEvent(FileEvent.Kind.MODIFY, dir, fullPath, 0));
+            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                events.add(new FileEvent(FileEvent.Kind.DELETE, dir, fullPath, 0));
+            }
+        }
+
+        boolean valid = key.reset();
+        if (!valid) {
+            watchKeys.remove(key);
+            keysByDir.remove(dir, key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
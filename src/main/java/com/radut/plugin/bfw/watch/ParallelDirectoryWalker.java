@@ -0,0 +1,117 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Walks a directory tree on a fork-join pool, one task per directory. Symbolic links are not followed.
+ * The filter decides whether a child directory (and its subtree) is visited; the visitor is called concurrently.
+ */
+public final class ParallelDirectoryWalker {
+    private final Predicate<Path> filter;
+    private final Consumer<Path> visitor;
+    private final LongAdder visited = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public ParallelDirectoryWalker(@NotNull Predicate<Path> filter, @NotNull Consumer<Path> visitor) {
+        this.filter = filter;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Walks the tree using the given parallelism. The root itself is always visited.
+     */
+    public void walk(@NotNull Path root, int parallelism) {
+        if (parallelism <= 1) {
+            walkSequentially(root);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new WalkTask(root));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Walks the tree on the calling thread, for small trees where a pool is not worth starting.
+     */
+    public void walkSequentially(@NotNull Path root) {
+        List<Path> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Path dir = pending.remove(pending.size() - 1);
+            visitor.accept(dir);
+            visited.increment();
+            pending.addAll(listChildDirectories(dir));
+        }
+    }
+
+    public long getVisitedCount() {
+        return visited.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    private List<Path> listChildDirectories(Path dir) {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                if (isDirectory(child) && filter.test(child)) {
+                    children.add(child);
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // Deleted while walking or not readable - nothing to watch below it
+            failures.increment();
+        }
+        return children;
+    }
+
+    private static boolean isDirectory(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private final class WalkTask extends RecursiveAction {
+        private final Path dir;
+
+        WalkTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            visitor.accept(dir);
+            visited.increment();
+            List<Path> children = listChildDirectories(dir);
+            if (children.isEmpty()) {
+                return;
+            }
+            List<WalkTask> subtasks = new ArrayList<>(children.size());
+            for (Path child : children) {
+                subtasks.add(new WalkTask(child));
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
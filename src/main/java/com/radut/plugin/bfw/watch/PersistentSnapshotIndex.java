@@ -0,0 +1,272 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk copy of the {@link DirectorySnapshots}, so that changes made while the project was closed can be
+ * found by comparing the disk with the state at the end of the previous session.
+ * <p>
+ * The file is a header followed by records, one per directory listing. Records are only ever appended; a later
+ * record for the same directory replaces an earlier one and a tombstone record removes it. The file is compacted
+ * by {@link #rewrite} once the previous state has been used, and again by {@link #compactIfNeeded} whenever
+ * superseded records make up most of it. Loading reads the file onto the heap and only indexes the record offsets;
+ * listings are decoded on demand, so lookups can run in parallel. The file is not memory-mapped: on Windows a
+ * mapped file cannot be replaced until the mapping is collected, which would make every rewrite fail.
+ * <pre>
+ * header:    int magic, int version
+ * record:    int length (of the rest of the record), byte type, int pathLength, byte[] path (UTF-8),
+ *            [int entryCount, entryCount x (short nameLength, byte[] name (UTF-8), long modified, long size)]
+ * </pre>
+ */
+public final class PersistentSnapshotIndex implements Closeable {
+    private static final int MAGIC = 0x42465749; // "BFWI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte LISTING = 1;
+    private static final byte TOMBSTONE = 0;
+    // Small files are not worth rewriting however much of them is garbage
+    private static final long COMPACT_MIN_BYTES = 4L * 1024 * 1024;
+
+    private final Path file;
+    // Previous session's state; dropped on rewrite
+    private volatile ByteBuffer baseline;
+    private volatile Map<Path, Integer> baselineOffsets;
+    private FileChannel appendChannel;
+    private boolean closed;
+    // Size of the file and of the records that are still current, to know when compacting pays off
+    private long fileSize;
+    private long liveBytes;
+    private final Map<Path, Integer> liveRecords = new HashMap<>();
+
+    private PersistentSnapshotIndex(Path file, ByteBuffer baseline, Map<Path, Integer> baselineOffsets) {
+        this.file = file;
+        this.baseline = baseline;
+        this.baselineOffsets = baselineOffsets;
+    }
+
+    /**
+     * Loads the index file. A missing, truncated or incompatible file yields an empty baseline.
+     */
+    @NotNull
+    public static PersistentSnapshotIndex open(@NotNull Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        if (!Files.isRegularFile(file)) {
+            return new PersistentSnapshotIndex(file, null, Collections.emptyMap());
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return new PersistentSnapshotIndex(file, null, Collections.emptyMap());
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // Shorter than reported; the record scan stops at the cut
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+        if (buffer.limit() < HEADER_SIZE) {
+            return new PersistentSnapshotIndex(file, null, Collections.emptyMap());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return new PersistentSnapshotIndex(file, null, Collections.emptyMap());
+        }
+
+        Map<Path, Integer> offsets = new HashMap<>();
+        int position = HEADER_SIZE;
+        int limit = buffer.limit();
+        while (position + 4 <= limit) {
+            int length = buffer.getInt(position);
+            int recordStart = position + 4;
+            // A record cut short by a crash ends the usable part of the file
+            if (length < 5 || recordStart + length > limit) {
+                break;
+            }
+            byte type = buffer.get(recordStart);
+            int pathLength = buffer.getInt(recordStart + 1);
+            if (pathLength < 0 || pathLength > length - 5) {
+                break;
+            }
+            Path dir = Paths.get(readString(buffer, recordStart + 5, pathLength));
+            if (type == LISTING) {
+                offsets.put(dir, recordStart + 5 + pathLength);
+            } else {
+                offsets.remove(dir);
+            }
+            position = recordStart + length;
+        }
+        return new PersistentSnapshotIndex(file, buffer, offsets);
+    }
+
+    /**
+     * @return the number of directories known from the previous session
+     */
+    public int getBaselineSize() {
+        return baselineOffsets.size();
+    }
+
+    /**
+     * @return the directory listing at the end of the previous session, or null if it was not known
+     */
+    @Nullable
+    public DirectorySnapshots.Snapshot getBaseline(@NotNull Path dir) {
+        ByteBuffer buffer = baseline;
+        Integer offset = baselineOffsets.get(dir);
+        if (buffer == null || offset == null) {
+            return null;
+        }
+        int position = offset;
+        int count = buffer.getInt(position);
+        position += 4;
+        String[] names = new String[count];
+        long[] modified = new long[count];
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            int nameLength = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            names[i] = readString(buffer, position, nameLength);
+            position += nameLength;
+            modified[i] = buffer.getLong(position);
+            position += 8;
+            sizes[i] = buffer.getLong(position);
+            position += 8;
+        }
+        return new DirectorySnapshots.Snapshot(names, modified, sizes);
+    }
+
+    /**
+     * Replaces the file with the given listings and forgets the previous session's state.
+     */
+    public synchronized void rewrite(@NotNull Map<Path, DirectorySnapshots.Snapshot> snapshots) throws IOException {
+        closeAppendChannel();
+        baseline = null;
+        baselineOffsets = Collections.emptyMap();
+
+        liveRecords.clear();
+        liveBytes = 0;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Path, DirectorySnapshots.Snapshot> entry : snapshots.entrySet()) {
+                byte[] record = encode(entry.getKey(), entry.getValue()).array();
+                out.write(record);
+                liveRecords.put(entry.getKey(), record.length);
+                liveBytes += record.length;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fileSize = HEADER_SIZE + liveBytes;
+    }
+
+    /**
+     * Rewrites the file with the given listings if more than half of it is made of superseded records
+     * and tombstones. Without this a long session would grow the file until it no longer loads.
+     *
+     * @param snapshots the current listings, a live view is fine
+     * @return whether the file was compacted
+     */
+    public synchronized boolean compactIfNeeded(@NotNull Map<Path, DirectorySnapshots.Snapshot> snapshots) throws IOException {
+        if (closed || fileSize < COMPACT_MIN_BYTES || fileSize - HEADER_SIZE < 2 * liveBytes) {
+            return false;
+        }
+        rewrite(snapshots);
+        return true;
+    }
+
+    /**
+     * Records the current listing of a directory, or its removal when the snapshot is null.
+     */
+    public synchronized void append(@NotNull Path dir, @Nullable DirectorySnapshots.Snapshot snapshot) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (appendChannel == null) {
+            boolean created = !Files.exists(file);
+            appendChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (created) {
+                appendChannel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip());
+            }
+            fileSize = appendChannel.size();
+        }
+        ByteBuffer record = encode(dir, snapshot);
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            appendChannel.write(record);
+        }
+        fileSize += length;
+        Integer previous = snapshot != null ? liveRecords.put(dir, length) : liveRecords.remove(dir);
+        liveBytes += (snapshot != null ? length : 0) - (previous != null ? previous : 0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeAppendChannel();
+        baseline = null;
+        baselineOffsets = Collections.emptyMap();
+    }
+
+    private void closeAppendChannel() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+            appendChannel = null;
+        }
+    }
+
+    private static ByteBuffer encode(Path dir, @Nullable DirectorySnapshots.Snapshot snapshot) {
+        byte[] path = dir.toString().getBytes(StandardCharsets.UTF_8);
+        int count = snapshot != null ? snapshot.getEntryCount() : 0;
+        byte[][] names = new byte[count][];
+        int length = 1 + 4 + path.length;
+        if (snapshot != null) {
+            length += 4;
+            for (int i = 0; i < count; i++) {
+                names[i] = snapshot.getName(i).getBytes(StandardCharsets.UTF_8);
+                length += 2 + names[i].length + 16;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.put(snapshot != null ? LISTING : TOMBSTONE);
+        buffer.putInt(path.length);
+        buffer.put(path);
+        if (snapshot != null) {
+            buffer.putInt(count);
+            for (int i = 0; i < count; i++) {
+                buffer.putShort((short) names[i].length);
+                buffer.put(names[i]);
+                buffer.putLong(snapshot.getModified(i));
+                buffer.putLong(snapshot.getSize(i));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static String readString(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Spreads the watched directories over several backends, each drained by its own thread, so that reading one
+ * kernel queue never waits for another. A directory goes to the shard of the closest assigned root containing it,
+ * otherwise to a shard chosen by its top-level directory, so a subtree stays on one shard.
+ * <p>
+ * Drained batches are merged into one queue for {@link #take()}; the events of one shard keep their order.
+ * When the merge queue is full the drain threads block, and the kernel queues absorb the backlog.
+ */
+public final class ShardedWatchBackend implements WatchBackend {
+    // Batches (not events) waiting for take()
+    private static final int MERGE_QUEUE_CAPACITY = 1024;
+    private static final Batch CLOSED = new Batch(-1, List.of());
+
+    /**
+     * Notified from the drain threads and the consumer; keep it cheap.
+     */
+    public interface Listener {
+        void queued(int shard, int events, long queuedEvents);
+
+        void consumed(int shard, long queuedEvents);
+    }
+
+    private final Path root;
+    private final WatchBackend[] shards;
+    private final Map<Path, Integer> rootShards = new ConcurrentHashMap<>();
+    private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(MERGE_QUEUE_CAPACITY);
+    private final AtomicLongArray queuedEvents;
+    private final AtomicLong nextRootShard = new AtomicLong();
+    private final List<Thread> drainers = new ArrayList<>();
+    private volatile Listener listener;
+    private volatile boolean closed;
+
+    public ShardedWatchBackend(@NotNull Path root, @NotNull List<WatchBackend> shards, @NotNull String threadName) {
+        this.root = root;
+        this.shards = shards.toArray(new WatchBackend[0]);
+        this.queuedEvents = new AtomicLongArray(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            int shard = i;
+            Thread thread = new Thread(() -> drain(shard), threadName + "-" + i);
+            thread.setDaemon(true);
+            drainers.add(thread);
+        }
+        drainers.forEach(Thread::start);
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Spreads the roots (e.g. content roots) over the shards round-robin. Only affects directories registered later.
+     */
+    public void assignRoots(@NotNull Collection<Path> roots) {
+        for (Path path : roots) {
+            rootShards.computeIfAbsent(path, k -> (int) (nextRootShard.getAndIncrement() % shards.length));
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getShardWatchCount(int shard) {
+        return shards[shard].getWatchCount();
+    }
+
+    public long getShardQueuedEvents(int shard) {
+        return queuedEvents.get(shard);
+    }
+
+    int shardOf(Path dir) {
+        for (Path path = dir; path != null; path = path.getParent()) {
+            Integer shard = rootShards.get(path);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        if (dir.startsWith(root) && dir.getNameCount() > root.getNameCount()) {
+            return Math.floorMod(dir.getName(root.getNameCount()).hashCode(), shards.length);
+        }
+        return 0;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return shards[0].getName() + " (" + shards.length + " shards)";
+    }
+
+    @Override
+    public void register(@NotNull Path dir) throws IOException {
+        if (!isWatched(dir)) {
+            shards[shardOf(dir)].register(dir);
+        }
+    }
+
+    @Override
+    public void unregister(@NotNull Path dir) {
+        // Assignments may have changed since the directory was registered
+        for (WatchBackend shard : shards) {
+            if (shard.isWatched(dir)) {
+                shard.unregister(dir);
+            }
+        }
+    }
+
+    @Override
+    public boolean isWatched(@NotNull Path dir) {
+        for (WatchBackend shard : shards) {
+            if (shard.isWatched(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getWatchCount() {
+        int count = 0;
+        for (WatchBackend shard : shards) {
+            count += shard.getWatchCount();
+        }
+        return count;
+    }
+
+    @NotNull
+    @Override
+    public List<FileEvent> take() throws InterruptedException {
+        Batch batch = batches.take();
+        List<FileEvent> events = new ArrayList<>();
+        List<Batch> ready = new ArrayList<>();
+        ready.add(batch);
+        batches.drainTo(ready);
+        for (Batch next : ready) {
+            if (next == CLOSED) {
+                batches.offer(CLOSED);
+                if (events.isEmpty()) {
+                    throw new ClosedWatchServiceException();
+                }
+                break;
+            }
+            events.addAll(next.events);
+            long queued = queuedEvents.addAndGet(next.shard, -next.events.size());
+            Listener current = listener;
+            if (current != null) {
+                current.consumed(next.shard, queued);
+            }
+        }
+        return events;
+    }
+
+    private void drain(int shard) {
+        WatchBackend backend = shards[shard];
+        while (!closed) {
+            List<FileEvent> events;
+            try {
+                events = backend.take();
+                if (events.isEmpty()) {
+                    continue;
+                }
+                long queued = queuedEvents.addAndGet(shard, events.size());
+                Listener current = listener;
+                if (current != null) {
+                    current.queued(shard, events.size(), queued);
+                }
+                batches.put(new Batch(shard, events));
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (WatchBackend shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        // Unblock drain threads waiting for room, then wake the consumer
+        drainers.forEach(Thread::interrupt);
+        batches.clear();
+        batches.offer(CLOSED);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Batch {
+        final int shard;
+        final List<FileEvent> events;
+
+        Batch(int shard, List<FileEvent> events) {
+            this.shard = shard;
+            this.events = events;
+        }
+    }
+}
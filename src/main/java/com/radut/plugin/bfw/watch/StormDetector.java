@@ -0,0 +1,124 @@
+package com.radut.plugin.bfw.watch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes change storms (branch switches, formatters run over the whole tree, ...) so that they can be
+ * handled with a single full synchronize instead of event by event.
+ * A storm starts when the event rate exceeds the threshold or when git moves HEAD (checkout, reset, merge, ...),
+ * and ends once no work tree event arrived for the quiescence period (or after a minute at most). Index writes alone do not
+ * count: git rewrites it for every add, commit or even status.
+ * Used by the classifier's batches only, one at a time.
+ */
+public final class StormDetector {
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // A steady trickle of events must not keep the watcher blind forever
+    private static final long MAX_STORM_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final long quiescenceNanos;
+    private volatile int threshold;
+
+    private long windowStart;
+    private int windowEvents;
+
+    private boolean inStorm;
+    private long stormStart;
+    private long lastEvent;
+    private long stormEvents;
+
+    /**
+     * @param threshold events per second that start a storm; 0 disables storm detection
+     */
+    public StormDetector(int threshold, long quiescenceMs) {
+        this.threshold = threshold;
+        this.quiescenceNanos = TimeUnit.MILLISECONDS.toNanos(quiescenceMs);
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Accounts for a batch of raw events.
+     *
+     * @param events      number of work tree events in the batch
+     * @param headMoved   whether the batch rewrote git's HEAD or ORIG_HEAD
+     * @return true if the batch belongs to a storm and should not be classified
+     */
+    public boolean record(int events, boolean headMoved, long now) {
+        if (now - windowStart >= RATE_WINDOW_NANOS) {
+            windowStart = now;
+            windowEvents = 0;
+        }
+        windowEvents += events;
+
+        if (!inStorm) {
+            int limit = threshold;
+            if (limit <= 0 || (!headMoved && windowEvents < limit)) {
+                return false;
+            }
+            inStorm = true;
+            stormStart = now;
+            // The events that crossed the threshold are part of the storm
+            stormEvents = headMoved ? 0 : windowEvents - events;
+            lastEvent = now;
+        }
+        // Background git activity (fsmonitor, gc, index refreshes) alone does not keep the storm going
+        if (events > 0 || headMoved) {
+            stormEvents += events;
+            lastEvent = now;
+        }
+        return true;
+    }
+
+    public boolean isInStorm() {
+        return inStorm;
+    }
+
+    /**
+     * @return whether a storm is in progress and either no event arrived for the quiescence period
+     * or it has lasted too long
+     */
+    public boolean shouldEnd(long now) {
+        return inStorm && (now - lastEvent >= quiescenceNanos || now - stormStart >= MAX_STORM_NANOS);
+    }
+
+    public long getQuiescenceNanos() {
+        return quiescenceNanos;
+    }
+
+    /**
+     * Ends the current storm.
+     *
+     * @return the storm that just ended
+     */
+    public Storm end(long now) {
+        Storm storm = new Storm(stormEvents, TimeUnit.NANOSECONDS.toMillis(lastEvent - stormStart));
+        inStorm = false;
+        stormEvents = 0;
+        windowStart = now;
+        windowEvents = 0;
+        return storm;
+    }
+
+    public static final class Storm {
+        private final long events;
+        private final long durationMillis;
+
+        private Storm(long events, long durationMillis) {
+            this.events = events;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * Work tree events seen during the storm; git's own files are not counted.
+         */
+        public long getEvents() {
+            return events;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+}
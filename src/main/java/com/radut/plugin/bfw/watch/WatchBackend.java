@@ -0,0 +1,28 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.util.List;
+
+/**
+ * Source of raw file system events for a set of individually registered directories.
+ * Registration may happen from several threads while another thread is blocked in {@link #take()}.
+ */
+public interface WatchBackend extends WatchRegistry {
+
+    /**
+     * Blocks until at least one event is available and returns every event that is ready.
+     *
+     * @throws ClosedWatchServiceException once the backend is closed, including while blocked
+     */
+    @NotNull
+    List<FileEvent> take() throws InterruptedException;
+
+    /**
+     * Closes the backend and wakes up a thread blocked in {@link #take()}.
+     */
+    @Override
+    void close() throws IOException;
+}
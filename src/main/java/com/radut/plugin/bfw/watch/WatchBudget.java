@@ -0,0 +1,125 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The user's inotify watch limit and how many watches are in use, read from /proc. The limit is shared by every
+ * process of the user, including other IDEs and tools; both watch backends are built on inotify on Linux.
+ */
+public final class WatchBudget {
+    public static final WatchBudget UNLIMITED = new WatchBudget(-1, 0);
+
+    private static final Path MAX_USER_WATCHES = Paths.get("/proc/sys/fs/inotify/max_user_watches");
+    private static final Path PROC = Paths.get("/proc");
+
+    private final long maxUserWatches;
+    private final long usedWatches;
+
+    private WatchBudget(long maxUserWatches, long usedWatches) {
+        this.maxUserWatches = maxUserWatches;
+        this.usedWatches = usedWatches;
+    }
+
+    /**
+     * Reads the limit and counts the watches of the processes we can inspect (the user's own).
+     * Lists every process' descriptors, so call it off the EDT and not too often.
+     *
+     * @return the budget, or {@link #UNLIMITED} if the limit cannot be read (not Linux)
+     */
+    @NotNull
+    public static WatchBudget read() {
+        long max;
+        try {
+            max = Long.parseLong(Files.readString(MAX_USER_WATCHES).trim());
+        } catch (IOException | NumberFormatException | SecurityException e) {
+            return UNLIMITED;
+        }
+        long used = 0;
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(PROC, path -> isNumeric(path.getFileName().toString()))) {
+            for (Path process : processes) {
+                used += countWatches(process);
+            }
+        } catch (IOException | SecurityException e) {
+            // Unknown usage: plan against the whole limit
+        }
+        return new WatchBudget(max, used);
+    }
+
+    private static long countWatches(Path process) {
+        long watches = 0;
+        try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(process.resolve("fd"))) {
+            for (Path descriptor : descriptors) {
+                if (!"anon_inode:inotify".equals(readLink(descriptor))) {
+                    continue;
+                }
+                Path info = process.resolve("fdinfo").resolve(descriptor.getFileName());
+                try (BufferedReader reader = Files.newBufferedReader(info)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("inotify wd:")) {
+                            watches++;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Closed meanwhile
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // Another user's process, or it exited
+        }
+        return watches;
+    }
+
+    private static String readLink(Path descriptor) {
+        try {
+            return Files.readSymbolicLink(descriptor).toString();
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static boolean isNumeric(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isLimited() {
+        return maxUserWatches >= 0;
+    }
+
+    /**
+     * @return fs.inotify.max_user_watches, or -1 if unknown
+     */
+    public long getMaxUserWatches() {
+        return maxUserWatches;
+    }
+
+    public long getUsedWatches() {
+        return usedWatches;
+    }
+
+    /**
+     * @param reserve watches left for other tools and later registrations
+     * @return how many more watches may be added, never negative; Integer.MAX_VALUE if unlimited
+     */
+    public int getAvailable(long reserve) {
+        if (!isLimited()) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, maxUserWatches - usedWatches - reserve));
+    }
+}
@@ -0,0 +1,201 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Shares one backend and one event loop thread between several consumers (projects). Each consumer gets a
+ * {@link Connection} to register directories on; a directory watched by several connections is registered once.
+ * Events are routed by the directory they were reported for and pushed to the consumers' callbacks on the loop thread.
+ */
+public final class WatchMultiplexer implements Closeable {
+
+    /**
+     * Receives the events of the directories registered through its connection. Called on the loop thread,
+     * so it should only hand the events off.
+     */
+    public interface Subscriber {
+        void onEvents(@NotNull List<FileEvent> events);
+    }
+
+    private final WatchBackend backend;
+    private final BiConsumer<Subscriber, Throwable> errorHandler;
+    // Connections watching each directory; a directory is registered with the backend while this is non-empty
+    private final Map<Path, List<Connection>> watchers = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread loop;
+    private volatile boolean closed;
+
+    /**
+     * @param errorHandler told about a subscriber that failed on the loop thread; the others still get their events
+     */
+    public WatchMultiplexer(@NotNull WatchBackend backend, @NotNull String threadName, @NotNull BiConsumer<Subscriber, Throwable> errorHandler) {
+        this.backend = backend;
+        this.errorHandler = errorHandler;
+        this.loop = new Thread(this::run, threadName);
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * @param onClose run once the connection is closed, e.g. to close the multiplexer when nobody uses it anymore
+     */
+    @NotNull
+    public Connection connect(@NotNull Subscriber subscriber, @NotNull Runnable onClose) {
+        Connection connection = new Connection(subscriber, onClose);
+        connections.add(connection);
+        return connection;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private void run() {
+        while (!closed) {
+            List<FileEvent> batch;
+            try {
+                // Blocks until events are ready; close() closes the backend to wake us up
+                batch = backend.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Map<Connection, List<FileEvent>> routed = new HashMap<>();
+            for (FileEvent event : batch) {
+                if (event.getKind() == FileEvent.Kind.OVERFLOW && event.getDir() == null) {
+                    // The whole backend lost events: everyone has to rescan
+                    for (Connection connection : connections) {
+                        routed.computeIfAbsent(connection, k -> new ArrayList<>()).add(event);
+                    }
+                    continue;
+                }
+                Path dir = event.getDir() != null ? event.getDir() : event.getPath() != null ? event.getPath().getParent() : null;
+                List<Connection> targets = dir != null ? watchers.get(dir) : null;
+                if (targets == null) {
+                    continue;
+                }
+                for (Connection connection : targets) {
+                    routed.computeIfAbsent(connection, k -> new ArrayList<>()).add(event);
+                }
+            }
+            routed.forEach((connection, events) -> {
+                try {
+                    connection.subscriber.onEvents(events);
+                } catch (Throwable e) {
+                    // One project's failure must not stop the loop for every other project
+                    errorHandler.accept(connection.subscriber, e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        backend.close();
+    }
+
+    /**
+     * One consumer's view of the shared backend: registration only, its events are pushed to its subscriber.
+     */
+    public final class Connection implements WatchRegistry {
+        private final Subscriber subscriber;
+        private final Runnable onClose;
+        private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+        private Connection(Subscriber subscriber, Runnable onClose) {
+            this.subscriber = subscriber;
+            this.onClose = onClose;
+        }
+
+        /**
+         * The backend shared with the other connections, e.g. to tune its sharding. Do not register on it directly.
+         */
+        @NotNull
+        public WatchBackend getSharedBackend() {
+            return backend;
+        }
+
+        @NotNull
+        @Override
+        public String getName() {
+            return backend.getName() + ", shared by " + connections.size() + " projects";
+        }
+
+        @Override
+        public void register(@NotNull Path dir) throws IOException {
+            if (!dirs.add(dir)) {
+                return;
+            }
+            try {
+                watchers.compute(dir, (key, current) -> {
+                    if (current == null) {
+                        try {
+                            backend.register(dir);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        current = new CopyOnWriteArrayList<>();
+                    }
+                    current.add(this);
+                    return current;
+                });
+            } catch (UncheckedIOException e) {
+                dirs.remove(dir);
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public void unregister(@NotNull Path dir) {
+            if (!dirs.remove(dir)) {
+                return;
+            }
+            watchers.computeIfPresent(dir, (key, current) -> {
+                current.remove(this);
+                if (current.isEmpty()) {
+                    backend.unregister(dir);
+                    return null;
+                }
+                return current;
+            });
+        }
+
+        @Override
+        public boolean isWatched(@NotNull Path dir) {
+            return dirs.contains(dir);
+        }
+
+        @Override
+        public int getWatchCount() {
+            return dirs.size();
+        }
+
+        /**
+         * Unregisters every directory only this connection watched and stops delivering events.
+         */
+        @Override
+        public void close() {
+            if (!connections.remove(this)) {
+                return;
+            }
+            for (Path dir : new ArrayList<>(dirs)) {
+                unregister(dir);
+            }
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.radut.plugin.bfw.watch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The set of individually registered directories a consumer watches. Where their events come from is up to the
+ * implementation: a {@link WatchBackend} hands them out through {@link WatchBackend#take()}, a connection to a
+ * shared watcher pushes them to its subscriber. Registration may happen from several threads.
+ */
+public interface WatchRegistry extends Closeable {
+
+    @NotNull
+    String getName();
+
+    /**
+     * Starts watching the direct children of the directory. Registering a directory twice is a no-op.
+     */
+    void register(@NotNull Path dir) throws IOException;
+
+    /**
+     * Stops watching the directory, if it is watched.
+     */
+    void unregister(@NotNull Path dir);
+
+    boolean isWatched(@NotNull Path dir);
+
+    int getWatchCount();
+
+    /**
+     * Stops watching every directory and releases the resources behind them.
+     */
+    @Override
+    void close() throws IOException;
+}
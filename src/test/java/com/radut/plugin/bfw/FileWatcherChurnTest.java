@@ -0,0 +1,221 @@
+package com.radut.plugin.bfw;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.testFramework.HeavyPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.radut.plugin.bfw.log.EventJournal;
+import com.radut.plugin.bfw.log.EventRecord;
+import com.radut.plugin.bfw.settings.FileWatcherSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drives file churn through the running watcher of a real project: every change has to reach the event log,
+ * quickly, and the burst has to be reloaded a few times rather than once per change.
+ */
+public class FileWatcherChurnTest extends HeavyPlatformTestCase {
+    private static final int DIRECTORIES = 10;
+    private static final int OPERATIONS = 300;
+    // Pace of the churn: about 200 changes per second
+    private static final long OPERATION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int DEBOUNCE_MS = 200;
+    private static final int MAX_DEBOUNCE_WAIT_MS = 1000;
+    // Generous for shared CI machines; the JDK watch service polls every ten seconds on macOS
+    private static final long MAX_P95_LATENCY_MS = SystemInfo.isMac ? 15_000 : 2_000;
+    private static final int TIMEOUT_SECONDS = 60;
+
+    private FileWatcherService service;
+    private Path churnRoot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileWatcherSettings settings = FileWatcherSettings.getInstance(getProject());
+        // Only the churn directory is relevant, whatever roots the test project has
+        settings.setIsInSource(false);
+        settings.setIsInTestSource(false);
+        settings.setIsInGeneratedSource(false);
+        settings.setIsInContent(false);
+        settings.setPathRegexFilters("^churn/.*");
+        settings.recompileRules();
+        settings.setAutoReloadEnabled(true);
+        settings.setAutoRebuildEnabled(false);
+        settings.setDebounceDelayMs(DEBOUNCE_MS);
+        settings.setMaxDebounceWaitMs(MAX_DEBOUNCE_WAIT_MS);
+        settings.setLeadingEdgeReload(false);
+        settings.setAutoTuneDebounce(false);
+        settings.setStormThreshold(0);
+        settings.setUseNativeWatcher(false);
+        settings.setSharedWatcher(false);
+        settings.setMinimalWatchSet(false);
+        settings.setDetectOfflineChanges(false);
+
+        churnRoot = Files.createDirectories(Paths.get(getProject().getBasePath(), "churn"));
+        service = getProject().getService(FileWatcherService.class);
+        // Started by the startup activity already, unless the test framework skipped it
+        service.startWatching();
+    }
+
+    public void testChurnIsReportedWithoutLoss() throws Exception {
+        EventJournal journal = service.getEventJournal();
+
+        // Files to modify and delete later, in directories known to be watched
+        List<Path> existing = new ArrayList<>();
+        long setupFrom = journal.size();
+        Map<String, Long> created = new HashMap<>();
+        for (int d = 0; d < DIRECTORIES; d++) {
+            Path dir = Files.createDirectories(churnRoot.resolve("d" + d));
+            awaitWatched(journal, dir);
+            for (int f = 0; f < 2 * OPERATIONS / 3 / DIRECTORIES + 1; f++) {
+                Path file = Files.writeString(dir.resolve("existing" + f + ".txt"), "initial");
+                existing.add(file);
+                created.put(relative(file), 0L);
+            }
+        }
+        waitFor(() -> findMissing(journal, setupFrom, created).isEmpty(), TIMEOUT_SECONDS);
+        assertEquals("Files created before the churn that were not reported", List.of(), findMissing(journal, setupFrom, created));
+
+        waitForReloads(0);
+        long reloadsBefore = service.getMetrics().getSyncNanos().getCount();
+
+        // Every path is touched once, so that no change can be coalesced away
+        long from = journal.size();
+        Map<String, Long> expected = new HashMap<>();
+        int next = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            long start = System.nanoTime();
+            long changedAt = System.currentTimeMillis();
+            Path file;
+            switch (i % 3) {
+                case 0:
+                    file = Files.writeString(churnRoot.resolve("d" + i % DIRECTORIES).resolve("new" + i + ".txt"), "created");
+                    break;
+                case 1:
+                    file = Files.writeString(existing.get(next++), "modified " + i);
+                    break;
+                default:
+                    file = existing.get(next++);
+                    Files.delete(file);
+                    break;
+            }
+            expected.put(relative(file), changedAt);
+            PlatformTestUtil.dispatchAllEventsInIdeEventQueue();
+            long remaining = OPERATION_INTERVAL_NANOS - (System.nanoTime() - start);
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        }
+
+        waitFor(() -> findMissing(journal, from, expected).isEmpty(), TIMEOUT_SECONDS);
+        assertEquals("Lost changes", List.of(), findMissing(journal, from, expected));
+        long reloads = waitForReloads(reloadsBefore + 1) - reloadsBefore;
+
+        List<Long> latencies = new ArrayList<>();
+        for (long index = from; index < journal.size(); index++) {
+            EventRecord record = journal.get(index);
+            Long changed = record != null && record.isTrigger() ? expected.get(record.getFilePath()) : null;
+            if (changed != null && record.getTimestamp() >= changed) {
+                latencies.add(record.getTimestamp() - changed);
+                expected.remove(record.getFilePath());
+            }
+        }
+        Collections.sort(latencies);
+        long p95 = latencies.get((int) Math.ceil(latencies.size() * 0.95) - 1);
+        assertTrue("p95 detection latency " + p95 + " ms", p95 <= MAX_P95_LATENCY_MS);
+        // The churn lasts about OPERATIONS * 5 ms; the debouncer reloads at least every MAX_DEBOUNCE_WAIT_MS
+        assertTrue("No reload after the churn", reloads >= 1);
+        assertTrue(reloads + " reloads for " + OPERATIONS + " changes", reloads <= OPERATIONS / 10);
+    }
+
+    /**
+     * @return the paths without a reported change at or after the time they were changed
+     */
+    private static List<String> findMissing(EventJournal journal, long from, Map<String, Long> expected) {
+        Map<String, Long> missing = new HashMap<>(expected);
+        for (long index = Math.max(from, journal.getFirstIndex()); index < journal.size(); index++) {
+            EventRecord record = journal.get(index);
+            if (record != null && record.isTrigger()) {
+                Long changed = missing.get(record.getFilePath());
+                if (changed != null && record.getTimestamp() >= changed) {
+                    missing.remove(record.getFilePath());
+                }
+            }
+        }
+        return new ArrayList<>(missing.keySet());
+    }
+
+    /**
+     * Waits until the debouncer has settled: at least {@code atLeast} reloads completed and none followed for a while.
+     *
+     * @return the number of reloads so far
+     */
+    private long waitForReloads(long atLeast) {
+        long[] last = {service.getMetrics().getSyncNanos().getCount(), System.nanoTime()};
+        waitFor(() -> {
+            long count = service.getMetrics().getSyncNanos().getCount();
+            long now = System.nanoTime();
+            if (count != last[0]) {
+                last[0] = count;
+                last[1] = now;
+            }
+            return count >= atLeast && now - last[1] > TimeUnit.MILLISECONDS.toNanos(2L * MAX_DEBOUNCE_WAIT_MS);
+        }, TIMEOUT_SECONDS);
+        return last[0];
+    }
+
+    /**
+     * Rewrites a probe file in the directory until the watcher reports it: a directory created while the watcher
+     * runs is registered asynchronously.
+     */
+    private void awaitWatched(EventJournal journal, Path dir) throws IOException {
+        Path probe = dir.resolve("probe.txt");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            long from = journal.size();
+            long writtenAt = System.currentTimeMillis();
+            Files.writeString(probe, "probe " + writtenAt);
+            Map<String, Long> expected = Map.of(relative(probe), writtenAt);
+            if (waitFor(() -> findMissing(journal, from, expected).isEmpty(), 1)) {
+                return;
+            }
+        }
+        fail("Directory was never watched: " + dir);
+    }
+
+    /**
+     * Dispatches the IDE's events (the test runs on the event dispatch thread) until the condition holds or the
+     * timeout passes.
+     *
+     * @return whether the condition holds
+     */
+    private static boolean waitFor(BooleanSupplier condition, int timeoutSeconds) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            PlatformTestUtil.dispatchAllEventsInIdeEventQueue();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String relative(Path file) {
+        return Paths.get(getProject().getBasePath()).relativize(file).toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.radut.plugin.bfw.rules;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GitIgnoreExemptionsTest {
+    private final GitIgnoreExemptions exemptions = GitIgnoreExemptions.compute("/p",
+            List.of("/p/target/generated-sources"), CompiledRules.compile("^build/gen\n.*\\.proto", ""), '/');
+
+    @Test
+    public void enabledRootIsExempt() {
+        assertTrue(exemptions.covers("/p/target/generated-sources"));
+        assertTrue(exemptions.covers("/p/target/generated-sources/A.java"));
+        assertFalse(exemptions.covers("/p/target/classes/A.class"));
+    }
+
+    @Test
+    public void anchoredIncludeIsExempt() {
+        assertTrue(exemptions.covers("/p/build/gen"));
+        assertTrue(exemptions.covers("/p/build/generated/x.txt"));
+        assertFalse(exemptions.covers("/p/build/other"));
+    }
+
+    @Test
+    public void ancestorsStayWalkable() {
+        assertTrue(exemptions.coversOrContains("/p/target"));
+        assertTrue(exemptions.coversOrContains("/p/build"));
+        assertFalse(exemptions.covers("/p/target"));
+        assertFalse(exemptions.coversOrContains("/p/target/classes"));
+    }
+
+    @Test
+    public void unanchoredIncludeExemptsNothing() {
+        GitIgnoreExemptions unanchored = GitIgnoreExemptions.compute("/p", List.of(), CompiledRules.compile(".*\\.proto", ""), '/');
+        assertFalse(unanchored.coversOrContains("/p/node_modules"));
+    }
+
+    @Test
+    public void contentIsNotExemptUnlessItIsARoot() {
+        // Only the caller's roots count: an ignored local config in a resource root is not covered
+        assertFalse(exemptions.covers("/p/src/main/resources/application-local.yml"));
+    }
+}
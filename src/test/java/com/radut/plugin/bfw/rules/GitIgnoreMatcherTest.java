@@ -0,0 +1,153 @@
+package com.radut.plugin.bfw.rules;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Expected results were taken from {@code git check-ignore --no-index} on the same files.
+ */
+public class GitIgnoreMatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private GitIgnoreMatcher matcher;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot().toPath();
+        write(".gitignore",
+                "# comment",
+                "/build/",
+                "*.log",
+                "!keep.log",
+                "foo/**/bar",
+                "docs/*.tmp",
+                "a?c",
+                "[!x]y.txt",
+                "r[0-9].txt",
+                "\\#hash",
+                "node_modules/",
+                "**/gen",
+                "target",
+                "!target/keep",
+                "[z-a]",
+                "trailing\\ ",
+                "spaces   ");
+        write("sub/.gitignore",
+                "*.tmp",
+                "!important.tmp");
+        write(".git/info/exclude",
+                "secret");
+        matcher = new GitIgnoreMatcher(root);
+    }
+
+    @Test
+    public void anchoredDirectoryPattern() {
+        assertDirectory(true, "build");
+        assertDirectory(false, "app/build");
+        assertDirectory(false, "build-config");
+        assertFile(false, "build");
+    }
+
+    @Test
+    public void wildcardsAndNegation() {
+        assertFile(true, "a.log");
+        assertFile(true, "logs/a.log");
+        assertFile(false, "keep.log");
+        assertFile(false, "logs/keep.log");
+        assertFile(true, "abc");
+        assertFile(false, "ac");
+        assertFile(true, "ay.txt");
+        assertFile(false, "xy.txt");
+        assertFile(true, "r7.txt");
+        assertFile(false, "rx.txt");
+    }
+
+    @Test
+    public void slashesAnchorPatterns() {
+        assertFile(true, "docs/a.tmp");
+        assertFile(false, "docs/a/b.tmp");
+        assertFile(false, "other/docs/a.tmp");
+    }
+
+    @Test
+    public void doubleAsterisks() {
+        assertDirectory(true, "foo/bar");
+        assertDirectory(true, "foo/x/y/bar");
+        assertFile(false, "foo/x/bar.txt");
+        assertDirectory(true, "gen");
+        assertDirectory(true, "app/src/gen");
+    }
+
+    @Test
+    public void directoryOnlyPattern() {
+        assertDirectory(true, "node_modules");
+        assertFile(false, "node_modules");
+        assertFile(true, "node_modules/x/y.js");
+    }
+
+    @Test
+    public void ignoredParentCannotBeUndone() {
+        assertDirectory(true, "target");
+        assertDirectory(true, "target/keep");
+        assertFile(true, "target/keep/a.txt");
+    }
+
+    @Test
+    public void escapesAndTrailingSpaces() {
+        assertFile(true, "#hash");
+        assertFile(true, "trailing ");
+        assertFile(false, "trailing");
+        assertFile(true, "spaces");
+    }
+
+    @Test
+    public void nestedGitIgnoreTakesPrecedence() {
+        assertFile(true, "sub/x.tmp");
+        assertFile(false, "sub/important.tmp");
+        assertFile(false, "x.tmp");
+    }
+
+    @Test
+    public void infoExclude() {
+        assertFile(true, "secret");
+        assertFile(true, "sub/secret");
+    }
+
+    @Test
+    public void reversedRangeMatchesItsFirstCharacter() {
+        assertFile(true, "z");
+        assertFile(false, "a");
+        assertFile(false, "y");
+    }
+
+    @Test
+    public void unmatchableBracketIsSkipped() {
+        assertNull(GitIgnoreMatcher.Rule.parse("[!]"));
+    }
+
+    private void assertFile(boolean ignored, String path) {
+        assertEquals(path, ignored, matcher.isIgnored(root.resolve(path), false));
+    }
+
+    private void assertDirectory(boolean ignored, String path) {
+        assertEquals(path + "/", ignored, matcher.isIgnored(root.resolve(path), true));
+    }
+
+    private void write(String path, String... lines) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
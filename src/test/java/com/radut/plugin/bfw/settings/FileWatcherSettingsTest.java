@@ -0,0 +1,14 @@
+package com.radut.plugin.bfw.settings;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+
+public class FileWatcherSettingsTest {
+
+    @Test
+    public void gitIgnoreIsNotRespectedByDefault() {
+        // A git-ignored application-local.yml or .env in a resource root has to keep triggering reloads after an upgrade
+        assertFalse(new FileWatcherSettings.State().respectGitIgnore);
+    }
+}